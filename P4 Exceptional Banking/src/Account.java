@@ -1,21 +1,38 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 import java.util.zip.DataFormatException;
 
 /**
  * An Account type object represents a bank user. The user will have a unique ID
- * that can not be changed and an arrayList of TransactionGroups and its size
- * stored in transactionGroupsCount This class contains 6 private field, 2
- * initializer and 6 methods, each of them in turn has following functions:
+ * that can not be changed and a TransactionGroupStore that keeps its
+ * transaction groups. This class contains 15 private field, 5 initializer and 22
+ * methods, each of them in turn has following functions:
  * 
- * @Initializer(name): load a name and set it as unique ID. Set an
- * transactionGroups with nulls @Initializer(file): load a file, set the name
- * and add transaction groups, throw an exception if there is any.
+ * @Initializer(name): load a name and set it as unique ID. Set an empty
+ * transactionGroups @Initializer(name, maxGroups): the same, but the account
+ * holds at most maxGroups transaction groups @Initializer(id, name): set the
+ * name and ID of an account that was saved before @Initializer(file): load a
+ * file, set the name and add transaction groups, throw an exception if there
+ * is any. @Initializer(file, lazy): the same, but when lazy is true the
+ * transaction groups are only parsed when they are first needed.
  * 
  * @method getId(): return the unique ID
  * @method addTransactionGroup(command): add a new transaction group, throw an
  *         exception if there is any
+ * @method tryAddTransactionGroup(command, result): add a new transaction
+ *         group, record the error in result if there is any
  * @method getTransactionCount(): calculate the total number of transactions in
  *         all groups
  * @method getTransactionAmount(index): calculate the amount of a certain
@@ -23,55 +40,319 @@ import java.util.zip.DataFormatException;
  * @method getCurrentBalance(): return the balance of all transaction groups
  * @method getNumberOfOverdrafts(): calculate the number of overdrafts of all
  *         transaction groups
+ * @method getBalanceAt(index): return the balance after a certain transaction
+ * @method getRangeSum(from, to): return the sum of a range of transactions
+ * @method getNumberOfOverdrafts(from, to): return the number of overdrafts in
+ *         a range of transactions
+ * @method getMinimumBalance(): return the lowest balance after any transaction
+ * @method getTransactionGroupCount(): return the number of transaction groups
+ * @method getTransactionGroup(groupIndex): return the transaction group with
+ *         the index
+ * @method iterator(): return a cursor over the amount of every transaction
+ * @method stream(): return an IntStream of the amount of every transaction
+ * @method forEach(action): give the amount of every transaction to action
+ * @method setIngestionListener(listener): set the listener of Account(File)
+ * @method setGroupCache(cache): set the TransactionGroupCache used to parse
+ *         commands
+ * @method setCompactGroups(compact): pack the large integer groups parsed from
+ *         now on or not
+ * @method setJournal(journal): write every transaction group added from now on
+ *         to a TransactionJournal
+ * @method setJournal(journal, writeHistory): the same, but the account and its
+ *         groups are only written first when writeHistory is true
+ * @method isLazy(): return true if the groups of a lazy file are not loaded
+ *         yet
+ * 
+ * An Account can be used by many threads at once. Transaction groups are added
+ * one at a time, while all the reading methods never lock and never wait for a
+ * thread that is adding a group.
  */
 public class Account {
 
-	private static final int MAX_GROUPS = 1;
-	private static int nextUniqueId = 1000;
-	private String name;
+	// The default limit of transaction groups, which means there is no limit
+	private static final int MAX_GROUPS = Integer.MAX_VALUE;
+	// Shared by all threads, so that accounts created or loaded at the same time
+	// never get the same ID
+	private static final AtomicInteger nextUniqueId = new AtomicInteger(1000);
+	// Each thread reads commands with its own parser, so the buffer is reused
+	private static final ThreadLocal<TransactionGroupParser> PARSER = ThreadLocal
+			.withInitial(TransactionGroupParser::new);
+	// Told about every group read by Account(File), null when nobody listens
+	private static volatile IngestionListener ingestionListener;
+	// Used by the parsers of all threads, null when there is no cache
+	private static volatile TransactionGroupCache groupCache;
+	// True when the parsers of all threads pack large integer groups
+	private static volatile boolean compactGroups;
+	private volatile String name;
 	private final int UNIQUE_ID;
-	private TransactionGroup[] transactionGroups;
-	private int transactionGroupsCount;
+	private final int maxGroups;
+	private TransactionGroupStore transactionGroups;
+	// Every group added is written to it, null when there is no journal
+	private volatile TransactionJournal journal;
+	// The groups whose records were buffered, and the groups that took their
+	// turn after the journal returned, in the order of their records. journaling
+	// groups are still waiting. Guarded by transactionGroups
+	private long tickets;
+	private long applied;
+	private int journaling;
+	// The file of a lazy account whose groups are not loaded yet, and where the
+	// groups are in it, null when they are loaded
+	private volatile File lazyFile;
+	private long groupsStart;
+	private long groupsEnd;
 
 	/**
-	 * This initializer will load a name and set it as unique ID. Set an
-	 * transactionGroups with nulls
+	 * This initializer will load a name and set it as unique ID. Set an empty
+	 * transactionGroups
 	 */
 	public Account(String name) {
+		this(name, MAX_GROUPS);
+	}
+
+	/**
+	 * This initializer will load a name and set it as unique ID. Set an empty
+	 * transactionGroups that holds at most maxGroups transaction groups
+	 */
+	public Account(String name, int maxGroups) {
+		this.setName(name);
+		this.UNIQUE_ID = Account.nextUniqueId.getAndIncrement();
+		this.maxGroups = maxGroups;
+		this.transactionGroups = new TransactionGroupStore(maxGroups);
+	}
+
+	/**
+	 * This initializer will set the name and the unique ID of an account that was
+	 * saved before, like AccountSnapshot does. The next unique ID is moved past it
+	 * the same way as when loading a file.
+	 */
+	Account(int id, String name) {
 		this.setName(name);
-		this.UNIQUE_ID = Account.nextUniqueId;
-		Account.nextUniqueId++;
-		this.transactionGroups = new TransactionGroup[MAX_GROUPS];
-		this.transactionGroupsCount = 0;
+		this.UNIQUE_ID = id;
+		Account.nextUniqueId.accumulateAndGet(this.UNIQUE_ID + 1, Math::max);
+		this.maxGroups = MAX_GROUPS;
+		this.transactionGroups = new TransactionGroupStore(MAX_GROUPS);
 	}
 
 	/**
 	 * This initializer will load a file, set the name and add transaction groups.
 	 * There is an error that may occur so we have to handle it: the file we want
-	 * does not exist, we should throw an FileNotFoundException
+	 * does not exist, we should throw an FileNotFoundException. The file is read
+	 * by an AccountFileReader, which maps the file and parses the transaction
+	 * groups from its bytes. When an IngestionListener is set, it is told about
+	 * every group, including the ones that are skipped.
 	 */
 	public Account(File file) throws FileNotFoundException {
-		// NOTE: THIS METHOD SHOULD NOT BE CALLED MORE THAN ONCE, BECAUSE THE
-		// RESULTING BEHAVIOR IS NOT DEFINED WITHIN THE JAVA SPECIFICATION ...
-
-		Scanner in = new Scanner(file);
-		// ... THIS WILL BE UPDATED TO READ FROM A FILE INSTEAD OF SYSTEM.IN.
-
-		this.setName(in.nextLine());
-		this.UNIQUE_ID = Integer.parseInt(in.nextLine());
-		Account.nextUniqueId = this.UNIQUE_ID + 1;
-		this.transactionGroups = new TransactionGroup[MAX_GROUPS];
-		this.transactionGroupsCount = 0;
-		while (in.hasNextLine()) {
-			try {
-				this.addTransactionGroup(in.nextLine());
-			} catch (DataFormatException e) {
-				// We catch this exception and do nothing, because we want remaining transaction
-				// groups to be processed as normal, one exception does not influence the other
+		this(file, false);
+	}
+
+	/**
+	 * This initializer will load a file like Account(file) does, but if lazy is
+	 * true only the name and the ID are read. The position where the transaction
+	 * groups start and the length of the file are kept, and the groups are parsed
+	 * by the first method that needs them, with the same rules and the same
+	 * skipped groups as Account(file). Lines written to the file after this
+	 * initializer are not read. If the file can not be read then, that method
+	 * throws an UncheckedIOException.
+	 */
+	public Account(File file, boolean lazy) throws FileNotFoundException {
+		IngestionListener listener = Account.ingestionListener;
+		long start = listener == null ? 0 : System.nanoTime();
+		AccountFileReader in = new AccountFileReader(file);
+		String name;
+		int id;
+		try {
+			name = in.nextLine();
+			id = Integer.parseInt(in.nextLine());
+		} catch (RuntimeException e) {
+			// Exception: the file does not start with a name and an ID, the file is
+			// closed before the exception is passed on
+			in.close();
+			throw e;
+		}
+		this.setName(name);
+		this.UNIQUE_ID = id;
+		// The next ID is only moved forward, so a file with a small ID loaded after
+		// one with a large ID can not make new accounts reuse IDs
+		Account.nextUniqueId.accumulateAndGet(this.UNIQUE_ID + 1, Math::max);
+		this.maxGroups = MAX_GROUPS;
+		this.transactionGroups = new TransactionGroupStore(MAX_GROUPS);
+		if (lazy) {
+			this.groupsStart = in.getPosition();
+			this.groupsEnd = in.getSize();
+			in.close();
+			// Written last, so a thread that reads it also reads the positions
+			this.lazyFile = file;
+			return;
+		}
+		this.load(in, listener, file, start);
+	}
+
+	/**
+	 * This method add the remaining transaction groups of a file like Account(File)
+	 * does. When a listener is set, it is told about every group and about the
+	 * whole file. The file is closed even when reading it fails.
+	 */
+	private void load(AccountFileReader in, IngestionListener listener, File file, long start) {
+		TransactionGroupParser parser = Account.parser();
+		// Bad groups are recorded here instead of throwing an exception for each
+		ValidationResult result = new ValidationResult();
+		// The groups are added at once, so the overdrafts of a large file are counted
+		// in parallel. They are kept in an array that is doubled when it is full and
+		// handed over with their count, so it is never copied to its exact size
+		TransactionGroup[] groups = new TransactionGroup[16];
+		int count = 0;
+		// The name and the ID
+		long lines = 2;
+		try {
+			while (in.hasNextLine()) {
+				long groupStart = listener == null ? 0 : System.nanoTime();
+				lines++;
+				TransactionGroup t = in.tryNextTransactionGroup(parser, result);
+				// We skip a bad group and do nothing, because we want remaining transaction
+				// groups to be processed as normal, one bad group does not influence the other
 				// groups
+				if (t != null) {
+					if (count == groups.length)
+						groups = Arrays.copyOf(groups, 2 * count);
+					groups[count++] = t;
+				}
+				if (listener == null)
+					continue;
+				// Skipped groups are counted by their reason
+				long nanos = System.nanoTime() - groupStart;
+				if (t == null)
+					listener.groupRejected(result.getReason(), nanos);
+				else
+					listener.groupAccepted(t.getEncoding(), t.getTransactionCount(), nanos);
+			}
+		} finally {
+			in.close();
+		}
+		this.addTransactionGroups(groups, count, null);
+		if (listener != null)
+			listener.fileLoaded(file, lines, in.getPosition(), System.nanoTime() - start);
+	}
+
+	/**
+	 * This method return transactionGroups, after the groups of the file of a lazy
+	 * account are loaded. Only one thread loads them, the others wait for it.
+	 */
+	private TransactionGroupStore groups() {
+		if (this.lazyFile != null) {
+			synchronized (this.transactionGroups) {
+				File file = this.lazyFile;
+				if (file != null) {
+					IngestionListener listener = Account.ingestionListener;
+					long start = listener == null ? 0 : System.nanoTime();
+					try {
+						this.load(new AccountFileReader(file, this.groupsStart, this.groupsEnd), listener, file,
+								start);
+					} catch (FileNotFoundException e) {
+						// Exception: the file was removed after the account was opened
+						throw new UncheckedIOException(e);
+					}
+					this.lazyFile = null;
+				}
+			}
+		}
+		return this.transactionGroups;
+	}
+
+	/**
+	 * This method return true if this account was opened lazily and its
+	 * transaction groups are not loaded yet.
+	 */
+	public boolean isLazy() {
+		return this.lazyFile != null;
+	}
+
+	/**
+	 * This method set the listener that is told about every transaction group read
+	 * by Account(File) from now on, in every thread. Use null to stop listening,
+	 * then loading a file does not read the clock at all.
+	 */
+	public static void setIngestionListener(IngestionListener listener) {
+		Account.ingestionListener = listener;
+	}
+
+	/**
+	 * This method write this account and the transaction groups it already has to
+	 * a TransactionJournal, and every group added from then on, so
+	 * TransactionJournal.replay can rebuild it. It returns after the records are
+	 * as durable as the journal asks. The name is written once, a later setName is
+	 * not written.
+	 * 
+	 * @throws IOException if the journal is closed or can not be written
+	 */
+	public void setJournal(TransactionJournal journal) throws IOException {
+		this.setJournal(journal, true);
+	}
+
+	/**
+	 * This method write every transaction group added from now on to a
+	 * TransactionJournal, like setJournal(journal) does when writeHistory is
+	 * true. When it is false, this account and the groups it already has are not
+	 * written, which is used for an account that replay rebuilt from the same
+	 * journal, so a journal that is opened again after every restart does not grow
+	 * by all its accounts each time.
+	 * 
+	 * @throws IOException if the journal is closed or can not be written
+	 */
+	public void setJournal(TransactionJournal journal, boolean writeHistory) throws IOException {
+		this.groups();
+		// Groups are added under the same lock, so none is missed or written twice.
+		// Each record is awaited, a batch may have room for only one
+		synchronized (this.transactionGroups) {
+			// Groups that wait for the old journal are added first
+			while (this.journaling > 0) {
+				try {
+					this.transactionGroups.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while waiting for the journal", e);
+				}
+			}
+			if (writeHistory) {
+				journal.await(journal.appendAccount(this.UNIQUE_ID, this.name));
+				for (int i = 0; i < this.transactionGroups.size(); i++)
+					journal.await(
+							journal.buffer(TransactionJournal.encode(this.UNIQUE_ID, this.transactionGroups.get(i))));
 			}
+			this.journal = journal;
 		}
-		in.close();
+	}
+
+	/**
+	 * This method set the TransactionGroupCache used to parse the commands of
+	 * addTransactionGroup, tryAddTransactionGroup and Account(File) from now on,
+	 * in every thread, so accounts with the same short commands share their
+	 * groups. Use null to stop using a cache.
+	 */
+	public static void setGroupCache(TransactionGroupCache cache) {
+		Account.groupCache = cache;
+	}
+
+	/**
+	 * This method set whether the large integer groups parsed by
+	 * addTransactionGroup, tryAddTransactionGroup and Account(File) from now on, in
+	 * every thread, are packed into varints, see
+	 * TransactionGroupParser.setCompact. They are not packed by default.
+	 */
+	public static void setCompactGroups(boolean compact) {
+		Account.compactGroups = compact;
+	}
+
+	/**
+	 * This method return the parser of the current thread, with the cache and the
+	 * packing that are set now.
+	 */
+	private static TransactionGroupParser parser() {
+		TransactionGroupParser parser = Account.PARSER.get();
+		TransactionGroupCache cache = Account.groupCache;
+		if (parser.getCache() != cache)
+			parser.setCache(cache);
+		parser.setCompact(Account.compactGroups);
+		return parser;
 	}
 
 	public int getId() {
@@ -82,46 +363,139 @@ public class Account {
 	 * This method add a transaction group to the array. There are several errors
 	 * that may occur so we have to handle them in sequence. 1. String command
 	 * contains letters other than numbers, we should throw a DataFormatException.
-	 * 2. transactionGroups exceed the limit, we should throw a OutOfMemoryError.
+	 * 2. transactionGroups already holds maxGroups groups, we should throw a
+	 * OutOfMemoryError. The command is read by the TransactionGroupParser of the
+	 * current thread, which does not split it into Strings.
 	 * 
 	 * @throws DataFormatException
 	 */
 	public void addTransactionGroup(String command) throws DataFormatException {
-		String[] parts = command.split(" ");
-		int[] newTransactions = new int[parts.length];
-		for (int i = 0; i < parts.length; i++) {
+		this.addTransactionGroup(Account.parser().parse(command));
+	}
+
+	/**
+	 * This method add a transaction group like addTransactionGroup(command) does,
+	 * but when the command is not good it records the error in result instead of
+	 * throwing a DataFormatException. A full transactionGroups still throws an
+	 * OutOfMemoryError.
+	 * 
+	 * @return true if the group was added
+	 */
+	public boolean tryAddTransactionGroup(String command, ValidationResult result) {
+		TransactionGroup t = Account.parser().tryParse(command, result);
+		if (t == null)
+			return false;
+		this.addTransactionGroup(t);
+		return true;
+	}
+
+	/**
+	 * This method add a transaction group that is already parsed to the array. If
+	 * transactionGroups already holds maxGroups groups, we should throw a
+	 * OutOfMemoryError. With a journal, the record of the group is written first
+	 * and the group is only added after the journal returns, so an account never
+	 * holds a group that replay would not rebuild. If the journal fails, the group
+	 * is not added and we throw an UncheckedIOException.
+	 */
+	void addTransactionGroup(TransactionGroup t) {
+		// The groups of a lazy file come first
+		this.groups();
+		TransactionJournal journal = this.journal;
+		// The record is encoded before the lock, and buffered in the same order the
+		// groups are added, so replay adds them in that order too
+		byte[] record = journal == null ? null : TransactionJournal.encode(this.UNIQUE_ID, t);
+		long sequence;
+		long ticket;
+		synchronized (this.transactionGroups) {
+			// setJournal may have set a journal since it was read
+			if (this.journal != journal) {
+				journal = this.journal;
+				record = TransactionJournal.encode(this.UNIQUE_ID, t);
+			}
+			if (journal == null) {
+				this.addToStore(t);
+				return;
+			}
+			// Exception: the store is full with the groups that wait for the journal
+			if (this.transactionGroups.size() + this.journaling >= this.maxGroups)
+				throw new OutOfMemoryError(
+						"the capacity of this Account object’s internal array storage is " + this.maxGroups);
 			try {
-				newTransactions[i] = Integer.parseInt(parts[i]);
-			} catch (NumberFormatException e) {
-				// Exception: command contains characters other than numbers
-				// Note that we have to catch the NumberFormatException and throw a
-				// DataFormatException
-				throw new DataFormatException(
-						"addTransactionGroup requires string commands that contain only space separated integer values");
+				sequence = journal.buffer(record);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
+			ticket = ++this.tickets;
+			this.journaling++;
 		}
+		IOException failure = null;
 		try {
-			TransactionGroup t = new TransactionGroup(newTransactions);
-			this.transactionGroups[this.transactionGroupsCount] = t;
-			this.transactionGroupsCount++;
-		} catch (IndexOutOfBoundsException e) {
-			// Exception: array out of bound
-			// Note that we have to catch the IndexOutOfBoundsException and throw a
-			// OutOfMemoryError
-			throw new OutOfMemoryError(
-					"the capacity of this Account object’s internal array storage is" + " MAX_GROUPS");
+			journal.await(sequence);
+		} catch (IOException e) {
+			failure = e;
+		}
+		synchronized (this.transactionGroups) {
+			// Groups are added in the order of their records, a record that failed
+			// takes its turn without adding its group
+			boolean interrupted = false;
+			while (this.applied != ticket - 1) {
+				try {
+					this.transactionGroups.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (failure == null)
+				this.addToStore(t);
+			this.applied = ticket;
+			this.journaling--;
+			this.transactionGroups.notifyAll();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		if (failure != null)
+			throw new UncheckedIOException(failure);
+	}
+
+	/**
+	 * This method add the first count transaction groups of an array, which are
+	 * already parsed, at once. Their balances and overdrafts are calculated by transactionGroups on the
+	 * common ForkJoinPool, with the same result as adding them one by one. When
+	 * overdrafts is not null, it holds the number of overdrafts of every group
+	 * after the groups before it, like a snapshot has them, and they are not
+	 * counted again, then count must be groups.length. With a journal they are added one by one, so every group is
+	 * written. If they do not fit in maxGroups groups, none is added and we should
+	 * throw a OutOfMemoryError. It is used while loading, so it does not load the
+	 * groups of a lazy file first.
+	 */
+	void addTransactionGroups(TransactionGroup[] groups, int count, int[] overdrafts) {
+		synchronized (this.transactionGroups) {
+			if (this.journal == null) {
+				// Exception: the store is full, only happens when a limit was configured
+				if (overdrafts == null ? !this.transactionGroups.addAll(groups, count, ForkJoinPool.commonPool())
+						: !this.transactionGroups.addAll(groups, overdrafts))
+					throw new OutOfMemoryError(
+							"the capacity of this Account object’s internal array storage is " + this.maxGroups);
+				return;
+			}
 		}
+		for (int i = 0; i < count; i++)
+			this.addTransactionGroup(groups[i]);
+	}
 
+	private void addToStore(TransactionGroup t) {
+		// Exception: the store is full, only happens when a limit was configured
+		if (!this.transactionGroups.add(t))
+			throw new OutOfMemoryError(
+					"the capacity of this Account object’s internal array storage is " + this.maxGroups);
 	}
 
 	/**
-	 * This method calculate the total number of transactions in all groups
+	 * This method return the total number of transactions in all groups, which is
+	 * kept up to date by transactionGroups
 	 */
 	public int getTransactionCount() {
-		int transactionCount = 0;
-		for (int i = 0; i < this.transactionGroupsCount; i++)
-			transactionCount += this.transactionGroups[i].getTransactionCount();
-		return transactionCount;
+		return this.groups().getTransactionCount();
 	}
 
 	/**
@@ -137,51 +511,153 @@ public class Account {
 		if (index >= size)
 			throw new IndexOutOfBoundsException(
 					"ArrayIndexOutOfBoundsException: " + index + ". Exceed the limit: " + size);
-		int transactionCount = 0;
-		for (int i = 0; i < this.transactionGroupsCount; i++) {
-			int prevTransactionCount = transactionCount;
-			transactionCount += this.transactionGroups[i].getTransactionCount();
-			if (transactionCount > index) {
-				index -= prevTransactionCount;
-				// Note that this index could be 0, it is legal because index start from 0
-				// in the TransactionGroup class
-				return this.transactionGroups[i].getTransactionAmount(index);
-			}
-		}
-		return -1;
+		// Find the group that contains this index by binary search
+		int i = this.groups().findGroup(index);
+		index -= this.groups().getGroupStart(i);
+		// Note that this index could be 0, it is legal because index start from 0
+		// in the TransactionGroup class
+		return this.groups().get(i).getTransactionAmount(index);
 	}
 
 	/**
-	 * This method calculate the amount of a certain transaction with an index
+	 * This method return the balance of all transaction groups. The balance is
+	 * updated by transactionGroups every time a group is added, so nothing has to
+	 * be calculated here.
 	 * 
 	 * @return return the balance of all transaction groups
 	 */
 	public int getCurrentBalance() {
-		int balance = 0;
-		int size = this.getTransactionCount();
-		for (int i = 0; i < size; i++)
-			balance += this.getTransactionAmount(i);
-		return balance;
+		return this.groups().getBalance();
 	}
 
 	/**
-	 * This method calculate the number of overdrafts of all transaction groups
+	 * This method return the number of overdrafts of all transaction groups. When a
+	 * group is added, transactionGroups counts its overdrafts starting from the
+	 * balance left by the groups before it. Note that an overdraft has to satisfy
+	 * both balance and amount < 0.
 	 * 
 	 * @return return the number of overdrafts of all transaction groups
 	 */
 	public int getNumberOfOverdrafts() {
-		int balance = 0;
-		int overdraftCount = 0;
+		return this.groups().getNumberOfOverdrafts();
+	}
+
+	/**
+	 * This method return the balance right after a certain transaction with an
+	 * index. If index < 0 or index >= size, we should throw
+	 * IndexOutOfBoundsException. It is answered from the totals kept by
+	 * transactionGroups in O(log groups) plus at most 64 transactions.
+	 * 
+	 * @return the balance after No.index transaction
+	 */
+	public int getBalanceAt(int index) throws IndexOutOfBoundsException {
 		int size = this.getTransactionCount();
-		// Note that when calculating overdrafts, we have to satisfy both balance and
-		// amount < 0
-		for (int i = 0; i < size; i++) {
-			int amount = this.getTransactionAmount(i);
-			balance += amount;
-			if (balance < 0 && amount < 0)
-				overdraftCount++;
-		}
-		return overdraftCount;
+		// Exception: index < 0 or index >= size
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(
+					"ArrayIndexOutOfBoundsException: " + index + ". Exceed the limit: " + size);
+		return this.groups().getBalanceBefore(index + 1);
+	}
+
+	/**
+	 * This method return the sum of the transactions from index from to index to
+	 * - 1, which is the balance after the range minus the balance before it. If
+	 * the range is not inside the transactions, we should throw
+	 * IndexOutOfBoundsException.
+	 * 
+	 * @return the net amount of the range
+	 */
+	public int getRangeSum(int from, int to) throws IndexOutOfBoundsException {
+		this.checkRange(from, to);
+		return this.groups().getBalanceBefore(to) - this.groups().getBalanceBefore(from);
+	}
+
+	/**
+	 * This method return the number of overdrafts among the transactions from
+	 * index from to index to - 1. The balance of each transaction is the balance of
+	 * the whole account, so this is the same as counting them in
+	 * getNumberOfOverdrafts(). If the range is not inside the transactions, we
+	 * should throw IndexOutOfBoundsException.
+	 * 
+	 * @return the number of overdrafts in the range
+	 */
+	public int getNumberOfOverdrafts(int from, int to) throws IndexOutOfBoundsException {
+		this.checkRange(from, to);
+		return this.groups().getOverdraftsBefore(to) - this.groups().getOverdraftsBefore(from);
+	}
+
+	private void checkRange(int from, int to) {
+		int size = this.getTransactionCount();
+		// Exception: the range is not inside the transactions added so far
+		if (from < 0 || to > size || from > to)
+			throw new IndexOutOfBoundsException(
+					"ArrayIndexOutOfBoundsException: " + from + " to " + to + ". Exceed the limit: " + size);
+	}
+
+	/**
+	 * This method return the lowest balance of this account after any transaction.
+	 * The balance before the first transaction is 0, so this is never above 0.
+	 * 
+	 * @return return the lowest balance of this account
+	 */
+	public int getMinimumBalance() {
+		return this.groups().getLowestBalance();
+	}
+
+	/**
+	 * This method return the number of transaction groups in this account.
+	 */
+	public int getTransactionGroupCount() {
+		return this.groups().size();
+	}
+
+	/**
+	 * This method return the transaction group with the index, in the order they
+	 * were added.
+	 */
+	public TransactionGroup getTransactionGroup(int groupIndex) {
+		// Exception: groupIndex is beyond the groups added so far
+		if (groupIndex < 0 || groupIndex >= this.groups().size())
+			throw new IndexOutOfBoundsException(
+					"ArrayIndexOutOfBoundsException: " + groupIndex + ". Exceed the limit: "
+							+ this.groups().size());
+		return this.groups().get(groupIndex);
+	}
+
+	/**
+	 * This method return a cursor over the amount of every transaction in order.
+	 * It walks the groups one by one with their own cursors, so reading all
+	 * transactions costs O(total) instead of a search for every index. The
+	 * transactions are the ones added before this method is called.
+	 * 
+	 * @return a cursor that starts before the first transaction
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new Cursor(this.groups().size());
+	}
+
+	/**
+	 * This method return an IntStream of the amount of every transaction in order,
+	 * with the transactions added before this method is called.
+	 * 
+	 * @return a sequential IntStream of the amounts
+	 */
+	public IntStream stream() {
+		int size = this.groups().size();
+		// The groups before group No.size hold count transactions
+		int count = this.groups().getGroupStart(size);
+		return StreamSupport.intStream(Spliterators.spliterator(new Cursor(size), count,
+				Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * This method give the amount of every transaction in order to action, with
+	 * the transactions added before this method is called.
+	 */
+	public void forEach(IntConsumer action) {
+		int size = this.groups().size();
+		for (int i = 0; i < size; i++)
+			this.groups().get(i).forEach(action);
 	}
 
 	public String getName() {
@@ -191,4 +667,38 @@ public class Account {
 	public void setName(String name) {
 		this.name = name;
 	}
+
+	/**
+	 * A Cursor walks over the transactions of the first size groups, using the
+	 * cursor of one group at a time.
+	 */
+	private class Cursor implements PrimitiveIterator.OfInt {
+
+		private final int size;
+		private int group;
+		private PrimitiveIterator.OfInt groupCursor;
+
+		Cursor(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public boolean hasNext() {
+			// Move to the next group that still has transactions
+			while (this.groupCursor == null || !this.groupCursor.hasNext()) {
+				if (this.group == this.size)
+					return false;
+				this.groupCursor = Account.this.transactionGroups.get(this.group++).iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public int nextInt() {
+			// Exception: there is no transaction left
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			return this.groupCursor.nextInt();
+		}
+	}
 }
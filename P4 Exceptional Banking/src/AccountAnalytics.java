@@ -0,0 +1,332 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An AccountAnalytics object adds up many account files: the number of
+ * accounts, their total balance and overdrafts, a histogram of their balances,
+ * the groups, transactions and volume of every encoding type, and the topN
+ * accounts with the most overdrafts. Each file is streamed one transaction
+ * group at a time by an AccountFileReader, with the same rules and skipped
+ * groups as Account(File), but no Account is created and no group is kept, so
+ * the memory used does not depend on the number or size of the files.
+ * 
+ * The totals of different files can be added up in any order, so files can be
+ * read by many threads, each into its own AccountAnalytics, which are merged at
+ * the end. analyze does this with a parallel Stream on the common ForkJoinPool.
+ * One AccountAnalytics must only be used by one thread at a time. This class
+ * contains 13 private field, 1 initializer and 15 methods, each of them in turn
+ * has following functions:
+ * 
+ * @Initializer(topN): create empty totals that keep the topN accounts with the
+ *                     most overdrafts.
+ * 
+ * @method analyze(directory, topN): read every file of a directory in parallel
+ * @method analyze(files, topN): read every file of a Stream, in parallel if it
+ *         is parallel
+ * @method addFile(file): add the totals of one account file
+ * @method merge(other): add the totals of another AccountAnalytics
+ * @method getAccountCount(): return the number of accounts read
+ * @method getFailedFileCount(): return the number of files that are not
+ *         account files
+ * @method getRejectedGroupCount(): return the number of skipped groups
+ * @method getTotalBalance(): return the sum of the balances of all accounts
+ * @method getTotalOverdrafts(): return the sum of the overdrafts of all
+ *         accounts
+ * @method getBalanceHistogram(): return the number of accounts in every
+ *         balance bucket
+ * @method getBucket(balance): return the histogram bucket of a balance
+ * @method getGroupCounts(): return the number of groups of every encoding type
+ * @method getTransactionCounts(): return the number of transactions of every
+ *         encoding type
+ * @method getVolumes(): return the sum of the absolute amounts of every
+ *         encoding type
+ * @method getTopOverdrafts(): return the topN accounts with the most
+ *         overdrafts, the most first
+ */
+public class AccountAnalytics {
+
+	// Bucket ZERO_BUCKET holds a balance of 0, ZERO_BUCKET + k holds balances from
+	// 2^(k-1) to 2^k - 1 and ZERO_BUCKET - k from -2^k + 1 to -2^(k-1)
+	private static final int ZERO_BUCKET = 32;
+	public static final int BUCKETS = 2 * ZERO_BUCKET + 1;
+	// The most overdrafts first, and the smaller ID first when they are the same
+	private static final Comparator<RankedAccount> RANKING = Comparator
+			.comparingInt(RankedAccount::getNumberOfOverdrafts).reversed()
+			.thenComparingInt(RankedAccount::getId);
+
+	private final int topN;
+	private long accounts;
+	private long failedFiles;
+	private long rejectedGroups;
+	private long totalBalance;
+	private long totalOverdrafts;
+	private final long[] balanceHistogram = new long[BUCKETS];
+	// By encoding number
+	private final long[] groupCounts = new long[3];
+	private final long[] transactionCounts = new long[3];
+	private final long[] volumes = new long[3];
+	// The worst of the kept accounts first, so it is the one replaced
+	private final PriorityQueue<RankedAccount> top;
+	// Used by addFile, each worker has its own
+	private final TransactionGroupParser parser = new TransactionGroupParser();
+	private final ValidationResult result = new ValidationResult();
+
+	/**
+	 * This initializer will create empty totals that keep the topN accounts with
+	 * the most overdrafts.
+	 */
+	public AccountAnalytics(int topN) {
+		// Exception: we can not keep fewer than 0 accounts
+		if (topN < 0)
+			throw new IllegalArgumentException("topN must not be negative, got " + topN);
+		this.topN = topN;
+		this.top = new PriorityQueue<RankedAccount>(Math.max(1, topN), RANKING.reversed());
+	}
+
+	/**
+	 * This method read every regular file of a directory as an account file, in
+	 * parallel on the common ForkJoinPool. Only the names of the files are kept in
+	 * memory, so the Stream can be split evenly between the threads.
+	 * 
+	 * @throws IOException if the directory can not be listed
+	 */
+	public static AccountAnalytics analyze(File directory, int topN) throws IOException {
+		List<File> files;
+		try (Stream<Path> paths = Files.list(directory.toPath())) {
+			files = paths.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+		}
+		return analyze(files.parallelStream(), topN);
+	}
+
+	/**
+	 * This method read every file of a Stream as an account file. If the Stream
+	 * is parallel, every thread adds its files to its own AccountAnalytics and
+	 * they are merged.
+	 */
+	public static AccountAnalytics analyze(Stream<File> files, int topN) {
+		return files.collect(() -> new AccountAnalytics(topN), AccountAnalytics::addFile, AccountAnalytics::merge);
+	}
+
+	/**
+	 * This method read an account file one transaction group at a time and add
+	 * its totals. The balance and the overdrafts are counted the same way as an
+	 * Account does, and bad groups are skipped and counted. A file that does not
+	 * exist, does not start with a name and an ID, or can not be read to its end,
+	 * is counted as failed, and none of its totals are added, like AccountLoader
+	 * does not keep such an account.
+	 */
+	public void addFile(File file) {
+		AccountFileReader in;
+		try {
+			in = new AccountFileReader(file);
+		} catch (IOException | UncheckedIOException e) {
+			this.failedFiles++;
+			return;
+		}
+		try {
+			String name = in.nextLine();
+			int id = Integer.parseInt(in.nextLine());
+			int balance = 0;
+			int overdrafts = 0;
+			long rejected = 0;
+			// By encoding number, added when the whole file was read
+			long[] groups = new long[3];
+			long[] transactions = new long[3];
+			long[] volumes = new long[3];
+			while (in.hasNextLine()) {
+				TransactionGroup t = in.tryNextTransactionGroup(this.parser, this.result);
+				if (t == null) {
+					rejected++;
+					continue;
+				}
+				overdrafts += t.getNumberOfOverdrafts(balance);
+				balance += t.getTransactionSum();
+				int type = t.getEncoding();
+				groups[type]++;
+				transactions[type] += t.getTransactionCount();
+				volumes[type] += t.getVolume();
+			}
+			this.rejectedGroups += rejected;
+			for (int type = 0; type < 3; type++) {
+				this.groupCounts[type] += groups[type];
+				this.transactionCounts[type] += transactions[type];
+				this.volumes[type] += volumes[type];
+			}
+			this.addAccount(new RankedAccount(id, name, balance, overdrafts));
+		} catch (NumberFormatException | NoSuchElementException | UncheckedIOException e) {
+			// Exception: the file does not start with a name and an ID, or reading it
+			// failed
+			this.failedFiles++;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void addAccount(RankedAccount account) {
+		this.accounts++;
+		this.totalBalance += account.getBalance();
+		this.totalOverdrafts += account.getNumberOfOverdrafts();
+		this.balanceHistogram[getBucket(account.getBalance())]++;
+		this.offer(account);
+	}
+
+	/**
+	 * This method keep an account if it is among the topN with the most
+	 * overdrafts so far.
+	 */
+	private void offer(RankedAccount account) {
+		if (this.top.size() < this.topN)
+			this.top.add(account);
+		else if (this.topN > 0 && RANKING.compare(account, this.top.peek()) < 0) {
+			this.top.poll();
+			this.top.add(account);
+		}
+	}
+
+	/**
+	 * This method add the totals of another AccountAnalytics to this one, as if
+	 * its files were read by this one.
+	 * 
+	 * @return this AccountAnalytics
+	 */
+	public AccountAnalytics merge(AccountAnalytics other) {
+		this.accounts += other.accounts;
+		this.failedFiles += other.failedFiles;
+		this.rejectedGroups += other.rejectedGroups;
+		this.totalBalance += other.totalBalance;
+		this.totalOverdrafts += other.totalOverdrafts;
+		for (int i = 0; i < BUCKETS; i++)
+			this.balanceHistogram[i] += other.balanceHistogram[i];
+		for (int type = 0; type < 3; type++) {
+			this.groupCounts[type] += other.groupCounts[type];
+			this.transactionCounts[type] += other.transactionCounts[type];
+			this.volumes[type] += other.volumes[type];
+		}
+		for (RankedAccount account : other.top)
+			this.offer(account);
+		return this;
+	}
+
+	public long getAccountCount() {
+		return this.accounts;
+	}
+
+	public long getFailedFileCount() {
+		return this.failedFiles;
+	}
+
+	public long getRejectedGroupCount() {
+		return this.rejectedGroups;
+	}
+
+	public long getTotalBalance() {
+		return this.totalBalance;
+	}
+
+	public long getTotalOverdrafts() {
+		return this.totalOverdrafts;
+	}
+
+	/**
+	 * This method return the number of accounts in every balance bucket, see
+	 * getBucket.
+	 */
+	public long[] getBalanceHistogram() {
+		return this.balanceHistogram.clone();
+	}
+
+	/**
+	 * This method return the histogram bucket of a balance. Bucket 32 holds 0,
+	 * bucket 32 + k holds the balances from 2^(k-1) to 2^k - 1, and bucket 32 - k
+	 * the balances from -2^k + 1 to -2^(k-1), so every bucket is twice as wide as
+	 * the one closer to 0. Integer.MIN_VALUE is in bucket 0.
+	 */
+	public static int getBucket(int balance) {
+		long magnitude = Math.abs((long) balance);
+		int bits = 64 - Long.numberOfLeadingZeros(magnitude);
+		return balance < 0 ? ZERO_BUCKET - bits : ZERO_BUCKET + bits;
+	}
+
+	public long[] getGroupCounts() {
+		return this.groupCounts.clone();
+	}
+
+	public long[] getTransactionCounts() {
+		return this.transactionCounts.clone();
+	}
+
+	public long[] getVolumes() {
+		return this.volumes.clone();
+	}
+
+	/**
+	 * This method return the topN accounts with the most overdrafts, the most
+	 * first, and the smaller ID first when they have the same number.
+	 */
+	public List<RankedAccount> getTopOverdrafts() {
+		ArrayList<RankedAccount> accounts = new ArrayList<RankedAccount>(this.top);
+		accounts.sort(RANKING);
+		return Collections.unmodifiableList(accounts);
+	}
+
+	@Override
+	public String toString() {
+		return "AccountAnalytics[accounts=" + this.accounts + ", failedFiles=" + this.failedFiles + ", rejectedGroups="
+				+ this.rejectedGroups + ", totalBalance=" + this.totalBalance + ", totalOverdrafts="
+				+ this.totalOverdrafts + ", groups=" + Arrays.toString(this.groupCounts) + ", transactions="
+				+ Arrays.toString(this.transactionCounts) + ", volumes=" + Arrays.toString(this.volumes) + ", top="
+				+ this.getTopOverdrafts() + "]";
+	}
+
+	/**
+	 * A RankedAccount is the ID, name, balance and number of overdrafts of an
+	 * account that was read by addFile.
+	 */
+	public static class RankedAccount {
+
+		private final int id;
+		private final String name;
+		private final int balance;
+		private final int overdrafts;
+
+		RankedAccount(int id, String name, int balance, int overdrafts) {
+			this.id = id;
+			this.name = name;
+			this.balance = balance;
+			this.overdrafts = overdrafts;
+		}
+
+		public int getId() {
+			return this.id;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public int getBalance() {
+			return this.balance;
+		}
+
+		public int getNumberOfOverdrafts() {
+			return this.overdrafts;
+		}
+
+		@Override
+		public String toString() {
+			return this.name + " (" + this.id + "): " + this.overdrafts + " overdrafts, balance " + this.balance;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+
+/**
+ * An AccountFileReader object reads the lines of an account file, the same way
+ * as a Scanner does with hasNextLine() and nextLine(). Instead of decoding the
+ * file into characters, the file is memory mapped and its bytes are scanned for
+ * line breaks directly. Transaction group lines are handed to a
+ * TransactionGroupParser as bytes, so no String is created for them. Large
+ * files are mapped one window at a time. A line ends at "\n", "\r" or "\r\n".
+ * This class contains 7 private field, 3 initializer and 7 methods, each of
+ * them in turn has following functions:
+ * 
+ * @Initializer(file): open and map the file, throw a FileNotFoundException if
+ *                     it does not exist.
+ * @Initializer(file, start, end): the same, but only read the lines from start
+ *                                 to end.
+ * 
+ * @method hasNextLine(): return true if there is another line
+ * @method nextLine(): return the next line as a String
+ * @method nextTransactionGroup(parser): parse the next line as a transaction
+ *         group
+ * @method tryNextTransactionGroup(parser, result): parse the next line as a
+ *         transaction group without throwing
+ * @method getPosition(): return the number of bytes read so far
+ * @method getSize(): return the position where reading stops
+ * @method close(): close the file
+ */
+public class AccountFileReader implements Closeable {
+
+	// The size of the part of the file that is mapped at once
+	private static final int WINDOW_SIZE = 1 << 28;
+
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int windowSize;
+	// The position in the file of the first byte after the last line read
+	private long position;
+	// The length of the line found by findLine, without the line break
+	private int lineLength;
+
+	/**
+	 * This initializer will open the file. There is an error that may occur so we
+	 * have to handle it: the file we want does not exist, we should throw an
+	 * FileNotFoundException, just like a Scanner
+	 */
+	public AccountFileReader(File file) throws FileNotFoundException {
+		this(file, WINDOW_SIZE);
+	}
+
+	/**
+	 * This initializer will open the file and map windowSize bytes at once, small
+	 * windows are used by the tests to cross window boundaries.
+	 */
+	@SuppressWarnings("resource")
+	AccountFileReader(File file, int windowSize) throws FileNotFoundException {
+		this.channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			this.size = this.channel.size();
+		} catch (IOException e) {
+			this.close();
+			throw new UncheckedIOException(e);
+		}
+		this.windowSize = windowSize;
+		this.position = 0;
+	}
+
+	/**
+	 * This initializer will open the file and read only the lines from position
+	 * start to position end, like a lazy Account does with the part of the file
+	 * that was there when it was opened. A file that got shorter is read to its
+	 * end.
+	 */
+	@SuppressWarnings("resource")
+	public AccountFileReader(File file, long start, long end) throws FileNotFoundException {
+		this.channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			this.size = Math.min(end, this.channel.size());
+		} catch (IOException e) {
+			this.close();
+			throw new UncheckedIOException(e);
+		}
+		this.windowSize = WINDOW_SIZE;
+		this.position = start;
+	}
+
+	public boolean hasNextLine() {
+		return this.position < this.size;
+	}
+
+	/**
+	 * This method return the next line, decoded with the default charset like a
+	 * Scanner does.
+	 * 
+	 * @throws NoSuchElementException if there is no line left
+	 */
+	public String nextLine() {
+		int start = this.findLine();
+		byte[] line = new byte[this.lineLength];
+		for (int i = 0; i < line.length; i++)
+			line[i] = this.window.get(start + i);
+		return new String(line, Charset.defaultCharset());
+	}
+
+	/**
+	 * This method parse the next line as a transaction group. The line is skipped
+	 * even when it is not a good transaction group, so the following line can
+	 * still be read.
+	 * 
+	 * @return the new TransactionGroup
+	 * @throws DataFormatException     with the same message as
+	 *                                 Account.addTransactionGroup(command)
+	 * @throws NoSuchElementException if there is no line left
+	 */
+	public TransactionGroup nextTransactionGroup(TransactionGroupParser parser) throws DataFormatException {
+		int start = this.findLine();
+		return parser.parse(this.window, start, this.lineLength);
+	}
+
+	/**
+	 * This method parse the next line as a transaction group like
+	 * nextTransactionGroup does, but records the error in result instead of
+	 * throwing a DataFormatException.
+	 * 
+	 * @return the new TransactionGroup, or null if the line is not a good
+	 *         transaction group
+	 * @throws NoSuchElementException if there is no line left
+	 */
+	public TransactionGroup tryNextTransactionGroup(TransactionGroupParser parser, ValidationResult result) {
+		int start = this.findLine();
+		return parser.tryParse(this.window, start, this.lineLength, result);
+	}
+
+	/**
+	 * This method return the number of bytes read so far, including line breaks.
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * This method return the position where reading stops, which is the length of
+	 * the file unless an end was given.
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			// Nothing was written, so there is nothing to lose when closing fails
+		}
+	}
+
+	/**
+	 * This method find the line that starts at position and move position to the
+	 * start of the following line. When the line does not end inside the current
+	 * window, the window is mapped again starting at the line, and made larger if
+	 * the line is longer than a whole window.
+	 * 
+	 * @return the index of the first byte of the line in window, the length is
+	 *         stored in lineLength
+	 */
+	private int findLine() {
+		if (this.position >= this.size)
+			throw new NoSuchElementException("No line found");
+		while (true) {
+			if (this.window == null || this.position >= this.windowStart + this.window.limit())
+				this.map(this.position);
+			int start = (int) (this.position - this.windowStart);
+			int limit = this.window.limit();
+			boolean lastWindow = this.windowStart + limit == this.size;
+			for (int i = start; i < limit; i++) {
+				byte b = this.window.get(i);
+				if (b != '\n' && b != '\r')
+					continue;
+				// We need the next byte to know whether "\r" is followed by "\n"
+				if (b == '\r' && i + 1 == limit && !lastWindow)
+					break;
+				this.lineLength = i - start;
+				boolean crlf = b == '\r' && i + 1 < limit && this.window.get(i + 1) == '\n';
+				this.position = this.windowStart + i + (crlf ? 2 : 1);
+				return start;
+			}
+			// The last line of the file does not need a line break
+			if (lastWindow) {
+				this.lineLength = limit - start;
+				this.position = this.size;
+				return start;
+			}
+			// Exception: the line is longer than the largest window we can map
+			if (start == 0 && this.windowSize == Integer.MAX_VALUE)
+				throw new UncheckedIOException(new IOException("line longer than " + Integer.MAX_VALUE + " bytes"));
+			if (start == 0)
+				this.windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * this.windowSize);
+			this.map(this.position);
+		}
+	}
+
+	/**
+	 * This method map the part of the file that starts at windowStart.
+	 */
+	private void map(long windowStart) {
+		try {
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					Math.min(this.windowSize, this.size - windowStart));
+			this.windowStart = windowStart;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
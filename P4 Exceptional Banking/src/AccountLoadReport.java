@@ -0,0 +1,84 @@
+import java.io.File;
+import java.util.List;
+
+/**
+ * An AccountLoadReport object tells how loading a list of account files went.
+ * For every file it keeps the time spent loading it and the exception thrown,
+ * if there was one. The results of different files are written by different
+ * threads, each to its own index, so no locking is needed. This class contains
+ * 4 private field, 1 initializer and 7 methods, each of them in turn has
+ * following functions:
+ * 
+ * @Initializer(files): create an empty report for the files.
+ * 
+ * @method getFileCount(): return the number of files
+ * @method getFile(index): return the file with the index
+ * @method getLoadTime(index): return the nanoseconds spent loading the file
+ * @method getFailure(index): return the exception thrown when loading the file,
+ *         or null if it was loaded
+ * @method getFailureCount(): return the number of files that were not loaded
+ * @method getTotalTime(): return the nanoseconds spent loading all files
+ * @method toString(): return a short summary of the report
+ */
+public class AccountLoadReport {
+
+	private final List<File> files;
+	private final long[] loadTimes;
+	private final Exception[] failures;
+	private long totalTime;
+
+	/**
+	 * This initializer will create an empty report for the files.
+	 */
+	AccountLoadReport(List<File> files) {
+		this.files = files;
+		this.loadTimes = new long[files.size()];
+		this.failures = new Exception[files.size()];
+	}
+
+	/**
+	 * This method record the result of loading the file with the index.
+	 */
+	void setResult(int index, long loadTime, Exception failure) {
+		this.loadTimes[index] = loadTime;
+		this.failures[index] = failure;
+	}
+
+	void setTotalTime(long totalTime) {
+		this.totalTime = totalTime;
+	}
+
+	public int getFileCount() {
+		return this.files.size();
+	}
+
+	public File getFile(int index) {
+		return this.files.get(index);
+	}
+
+	public long getLoadTime(int index) {
+		return this.loadTimes[index];
+	}
+
+	public Exception getFailure(int index) {
+		return this.failures[index];
+	}
+
+	public int getFailureCount() {
+		int failureCount = 0;
+		for (int i = 0; i < this.failures.length; i++)
+			if (this.failures[i] != null)
+				failureCount++;
+		return failureCount;
+	}
+
+	public long getTotalTime() {
+		return this.totalTime;
+	}
+
+	@Override
+	public String toString() {
+		return "loaded " + (this.getFileCount() - this.getFailureCount()) + " of " + this.getFileCount()
+				+ " account files in " + this.totalTime / 1000000 + " ms";
+	}
+}
@@ -0,0 +1,159 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An AccountLoader object loads many account files at once on a ForkJoinPool,
+ * and keeps the loaded accounts in a registry by their ID. The list of files is
+ * split in halves until the parts are small, and every part is loaded by one
+ * worker with Account(File), so all cores are used. Two files with the same ID
+ * can not both be registered, the second one is reported as a failure. This
+ * class contains 2 private field, 2 initializer and 5 methods, each of them in
+ * turn has following functions:
+ * 
+ * @Initializer(): load files on the common ForkJoinPool.
+ * @Initializer(pool): load files on the given ForkJoinPool.
+ * 
+ * @method load(directory): load every file in a directory
+ * @method load(files): load every file in a list
+ * @method getAccount(id): return the registered account with the ID, or null
+ * @method getAccounts(): return all registered accounts by their ID
+ * @method size(): return the number of registered accounts
+ */
+public class AccountLoader {
+
+	// A part of the list with at most this many files is loaded by one worker
+	private static final int FILES_PER_TASK = 32;
+
+	private final ForkJoinPool pool;
+	private final ConcurrentHashMap<Integer, Account> accounts;
+
+	/**
+	 * This initializer will create a loader with an empty registry that loads files
+	 * on the common ForkJoinPool.
+	 */
+	public AccountLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * This initializer will create a loader with an empty registry that loads files
+	 * on the given ForkJoinPool.
+	 */
+	public AccountLoader(ForkJoinPool pool) {
+		this.pool = pool;
+		this.accounts = new ConcurrentHashMap<Integer, Account>();
+	}
+
+	/**
+	 * This method load every regular file in a directory. There is an error that
+	 * may occur so we have to handle it: the directory can not be listed, we should
+	 * throw an IOException.
+	 * 
+	 * @return the report of loading the files, in the order they were listed
+	 */
+	public AccountLoadReport load(File directory) throws IOException {
+		List<File> files = new ArrayList<File>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+			for (Path path : stream)
+				if (Files.isRegularFile(path))
+					files.add(path.toFile());
+		}
+		return this.load(files);
+	}
+
+	/**
+	 * This method load every file in a list and register the accounts. A file that
+	 * can not be loaded does not stop the others, its exception is kept in the
+	 * report instead.
+	 * 
+	 * @return the report of loading the files, in the order of the list
+	 */
+	public AccountLoadReport load(List<File> files) {
+		AccountLoadReport report = new AccountLoadReport(files);
+		long start = System.nanoTime();
+		this.pool.invoke(new LoadTask(files, report, 0, files.size()));
+		report.setTotalTime(System.nanoTime() - start);
+		return report;
+	}
+
+	public Account getAccount(int id) {
+		return this.accounts.get(id);
+	}
+
+	public Map<Integer, Account> getAccounts() {
+		return Collections.unmodifiableMap(this.accounts);
+	}
+
+	public int size() {
+		return this.accounts.size();
+	}
+
+	/**
+	 * This method load one file and register its account. There are several errors
+	 * that may occur, which are returned instead of thrown: the file does not
+	 * exist, the ID line is not a number, the file ends before the ID line, the
+	 * file can not be read, or another file with the same ID was registered
+	 * already.
+	 * 
+	 * @return the exception, or null if the account is registered
+	 */
+	private Exception loadFile(File file) {
+		try {
+			Account account = new Account(file);
+			if (this.accounts.putIfAbsent(account.getId(), account) != null)
+				return new IllegalStateException("an account with ID " + account.getId() + " is already registered");
+			return null;
+		} catch (FileNotFoundException | RuntimeException e) {
+			// RuntimeException covers NumberFormatException, NoSuchElementException and
+			// UncheckedIOException from a bad file
+			return e;
+		}
+	}
+
+	/**
+	 * A LoadTask loads the files from start to end of the list, by splitting the
+	 * range in halves until it is small enough for one worker.
+	 */
+	private class LoadTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+		private final AccountLoadReport report;
+		private final int start;
+		private final int end;
+
+		LoadTask(List<File> files, AccountLoadReport report, int start, int end) {
+			this.files = files;
+			this.report = report;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.end - this.start > FILES_PER_TASK) {
+				int middle = (this.start + this.end) >>> 1;
+				invokeAll(new LoadTask(this.files, this.report, this.start, middle),
+						new LoadTask(this.files, this.report, middle, this.end));
+				return;
+			}
+			for (int i = this.start; i < this.end; i++) {
+				long start = System.nanoTime();
+				Exception failure = AccountLoader.this.loadFile(this.files.get(i));
+				this.report.setResult(i, System.nanoTime() - start, failure);
+			}
+		}
+	}
+}
@@ -0,0 +1,426 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * An AccountRegistry object keeps many accounts outside of the Java heap, so
+ * millions of them do not make the garbage collector slower. Every account is
+ * written as one record into large direct ByteBuffers (slabs): its ID, its
+ * cached totals, its name and its transaction groups, encoded like
+ * AccountSnapshot does. The records are found by ID through an open addressing
+ * hash table that is stored in a direct ByteBuffer too, so the heap holds only
+ * a few buffer objects however many accounts are added. The totals and the
+ * name are read straight from the record. get(id) and forEach decode the whole
+ * account into a new Account object every time, so they allocate as much as
+ * loading it.
+ * 
+ * Records are never changed or removed, so a registry can be shared by many
+ * threads: add takes a write lock, and the other methods take a read lock,
+ * which many threads hold at once. ids and forEach walk the slabs without a
+ * lock, over the records that were there when they were called. This class
+ * contains 7 private field, 2 initializer and 12 methods, each of them in turn
+ * has following functions:
+ * 
+ * @Initializer: create an empty registry.
+ * 
+ * @method add(account): write an account into the registry
+ * @method contains(id): return true if an account has the ID
+ * @method get(id): return a new Account decoded from the record
+ * @method getName(id): return the name of the account
+ * @method getTransactionCount(id): return the cached number of transactions
+ * @method getBalance(id): return the cached balance
+ * @method getNumberOfOverdrafts(id): return the cached number of overdrafts
+ * @method getMinimumBalance(id): return the cached lowest balance
+ * @method size(): return the number of accounts
+ * @method getRecordBytes(): return the number of bytes used by the records
+ * @method ids(): return a cursor over the IDs in the order they were added
+ * @method forEach(action): give a new Account of every record to action
+ */
+public class AccountRegistry {
+
+	// The default size of a slab, a record that is larger gets a slab of its own
+	private static final int SLAB_SIZE = 1 << 24;
+	// The bytes of a record before the name: length, ID, transaction count,
+	// balance, overdrafts, minimum balance, group count
+	private static final int HEADER_SIZE = 7 * 4;
+	// The offsets of the cached totals in a record
+	private static final int COUNT_OFFSET = 8;
+	private static final int BALANCE_OFFSET = 12;
+	private static final int OVERDRAFTS_OFFSET = 16;
+	private static final int MINIMUM_OFFSET = 20;
+	// An entry of the index is an int ID and the long address of its record plus
+	// 1, an address of 0 marks an empty entry
+	private static final int ENTRY_SIZE = 12;
+
+	private final int slabSize;
+	// Records are appended to the last slab, its position is the end of the
+	// records in it
+	private final ArrayList<ByteBuffer> slabs;
+	private ByteBuffer index;
+	// The number of entries in index, always a power of 2
+	private int capacity;
+	private int size;
+	private long bytes;
+	// Taken for writing by add and for reading by the other methods
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * This initializer will create an empty registry.
+	 */
+	public AccountRegistry() {
+		this(SLAB_SIZE);
+	}
+
+	/**
+	 * This initializer will create an empty registry with slabs of slabSize
+	 * bytes, small slabs are used by the tests.
+	 */
+	AccountRegistry(int slabSize) {
+		this.slabSize = slabSize;
+		this.slabs = new ArrayList<ByteBuffer>();
+		this.capacity = 1 << 10;
+		this.index = ByteBuffer.allocateDirect(this.capacity * ENTRY_SIZE);
+	}
+
+	/**
+	 * This method write an account into the registry, with the groups and totals
+	 * it has now. Groups added to the account afterwards are not in the registry.
+	 * There is an error that may occur: an account with the same ID is already in
+	 * the registry, we should throw an IllegalStateException, like AccountLoader
+	 * does.
+	 */
+	public void add(Account account) {
+		this.lock.writeLock().lock();
+		try {
+			this.write(account);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void write(Account account) {
+		int id = account.getId();
+		// Exception: the ID is already used
+		if (this.find(id) != 0)
+			throw new IllegalStateException("an account with ID " + id + " is already in the registry");
+		byte[] name = account.getName().getBytes(StandardCharsets.UTF_8);
+		int groupCount = account.getTransactionGroupCount();
+		// The record only covers the first groupCount groups, even if another thread
+		// adds groups meanwhile
+		long length = HEADER_SIZE + 4 + name.length;
+		for (int g = 0; g < groupCount; g++) {
+			TransactionGroup t = account.getTransactionGroup(g);
+			long[] groupLength = { 1 + Varints.length(t.getValueCount()) };
+			t.forEachValue(value -> groupLength[0] += Varints.length(Varints.zigzag(value)));
+			length += groupLength[0];
+		}
+		// Exception: a record must fit in one direct buffer
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("account " + id + " is too large for the registry");
+		// The totals of the first groupCount groups
+		int count = 0;
+		int balance = 0;
+		int lowest = 0;
+		for (int g = 0; g < groupCount; g++) {
+			TransactionGroup t = account.getTransactionGroup(g);
+			count += t.getTransactionCount();
+			lowest = Math.min(lowest, balance + t.getLowestBalance());
+			balance += t.getTransactionSum();
+		}
+		ByteBuffer slab = this.slabFor((int) length);
+		int start = slab.position();
+		slab.putInt((int) length - 4).putInt(id).putInt(count).putInt(balance)
+				.putInt(account.getNumberOfOverdrafts(0, count)).putInt(lowest);
+		slab.putInt(groupCount).putInt(name.length).put(name);
+		IntConsumer writer = value -> Varints.put(slab, Varints.zigzag(value));
+		for (int g = 0; g < groupCount; g++) {
+			TransactionGroup t = account.getTransactionGroup(g);
+			slab.put((byte) t.getEncoding());
+			Varints.put(slab, t.getValueCount());
+			t.forEachValue(writer);
+		}
+		this.bytes += length;
+		this.insert(id, ((long) (this.slabs.size() - 1) << 32) | start);
+	}
+
+	/**
+	 * This method return the slab the next record of length bytes is written to.
+	 * A new slab is allocated when the last one has no room, and a record larger
+	 * than slabSize gets a slab of exactly its size.
+	 */
+	private ByteBuffer slabFor(int length) {
+		ByteBuffer last = this.slabs.isEmpty() ? null : this.slabs.get(this.slabs.size() - 1);
+		if (last != null && last.remaining() >= length)
+			return last;
+		ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(length, this.slabSize));
+		this.slabs.add(slab);
+		return slab;
+	}
+
+	/**
+	 * This method put an ID and the address of its record into the index, and
+	 * double the index first when it would be more than half full.
+	 */
+	private void insert(int id, long address) {
+		if (2 * (this.size + 1) > this.capacity) {
+			ByteBuffer old = this.index;
+			int oldCapacity = this.capacity;
+			this.capacity *= 2;
+			this.index = ByteBuffer.allocateDirect(this.capacity * ENTRY_SIZE);
+			for (int e = 0; e < oldCapacity; e++) {
+				long oldAddress = old.getLong(e * ENTRY_SIZE + 4);
+				if (oldAddress != 0)
+					this.put(old.getInt(e * ENTRY_SIZE), oldAddress);
+			}
+		}
+		this.put(id, address + 1);
+		this.size++;
+	}
+
+	/**
+	 * This method put an entry into the first empty place from the hash of the ID
+	 * on.
+	 */
+	private void put(int id, long storedAddress) {
+		int e = this.hash(id);
+		while (this.index.getLong(e * ENTRY_SIZE + 4) != 0)
+			e = (e + 1) & (this.capacity - 1);
+		this.index.putInt(e * ENTRY_SIZE, id);
+		this.index.putLong(e * ENTRY_SIZE + 4, storedAddress);
+	}
+
+	/**
+	 * This method find the record of an ID by walking from the hash of the ID to
+	 * the first empty entry.
+	 * 
+	 * @return the address of the record plus 1, or 0 if no account has the ID
+	 */
+	private long find(int id) {
+		for (int e = this.hash(id);; e = (e + 1) & (this.capacity - 1)) {
+			long storedAddress = this.index.getLong(e * ENTRY_SIZE + 4);
+			if (storedAddress == 0 || this.index.getInt(e * ENTRY_SIZE) == id)
+				return storedAddress;
+		}
+	}
+
+	private int hash(int id) {
+		// Successive IDs are spread over the table by the golden ratio
+		return (id * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(this.capacity));
+	}
+
+	/**
+	 * This method return the slab of the record of an ID with its position set to
+	 * the start of the record, as a duplicate so other readers are not disturbed.
+	 * 
+	 * @throws NoSuchElementException if no account has the ID
+	 */
+	private ByteBuffer record(int id) {
+		long storedAddress = this.find(id);
+		// Exception: no account has the ID
+		if (storedAddress == 0)
+			throw new NoSuchElementException("no account with ID " + id + " in the registry");
+		long address = storedAddress - 1;
+		ByteBuffer record = this.slabs.get((int) (address >>> 32)).duplicate();
+		record.position((int) address);
+		return record;
+	}
+
+	public boolean contains(int id) {
+		this.lock.readLock().lock();
+		try {
+			return this.find(id) != 0;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This method decode the record of an ID into a new Account with the same ID,
+	 * name and transaction groups.
+	 * 
+	 * @throws NoSuchElementException if no account has the ID
+	 */
+	public Account get(int id) {
+		ByteBuffer record;
+		this.lock.readLock().lock();
+		try {
+			record = this.record(id);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		return decode(record);
+	}
+
+	/**
+	 * This method decode the record that starts at the position of record, and
+	 * move the position to the end of it.
+	 */
+	private static Account decode(ByteBuffer record) {
+		record.getInt();
+		int id = record.getInt();
+		record.position(record.position() + 16);
+		int groupCount = record.getInt();
+		byte[] name = new byte[record.getInt()];
+		record.get(name);
+		Account account = new Account(id, new String(name, StandardCharsets.UTF_8));
+		for (int g = 0; g < groupCount; g++) {
+			int encoding = record.get();
+			int[] values = new int[Varints.get(record)];
+			for (int i = 0; i < values.length; i++)
+				values[i] = Varints.unzigzag(Varints.get(record));
+			account.addTransactionGroup(new TransactionGroup(encoding, values));
+		}
+		return account;
+	}
+
+	public String getName(int id) {
+		ByteBuffer record;
+		this.lock.readLock().lock();
+		try {
+			record = this.record(id);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		byte[] name = new byte[record.getInt(record.position() + HEADER_SIZE)];
+		record.position(record.position() + HEADER_SIZE + 4);
+		record.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	public int getTransactionCount(int id) {
+		return this.getTotal(id, COUNT_OFFSET);
+	}
+
+	public int getBalance(int id) {
+		return this.getTotal(id, BALANCE_OFFSET);
+	}
+
+	public int getNumberOfOverdrafts(int id) {
+		return this.getTotal(id, OVERDRAFTS_OFFSET);
+	}
+
+	public int getMinimumBalance(int id) {
+		return this.getTotal(id, MINIMUM_OFFSET);
+	}
+
+	/**
+	 * This method return the cached total at offset of the record of an ID.
+	 * 
+	 * @throws NoSuchElementException if no account has the ID
+	 */
+	private int getTotal(int id, int offset) {
+		this.lock.readLock().lock();
+		try {
+			long address = this.find(id) - 1;
+			// Exception: no account has the ID
+			if (address < 0)
+				throw new NoSuchElementException("no account with ID " + id + " in the registry");
+			return this.slabs.get((int) (address >>> 32)).getInt((int) address + offset);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		this.lock.readLock().lock();
+		try {
+			return this.size;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This method return the number of bytes of records in the slabs.
+	 */
+	public long getRecordBytes() {
+		this.lock.readLock().lock();
+		try {
+			return this.bytes;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * This method return a cursor over the IDs of the accounts in the order they
+	 * were added, by walking the records of every slab one at a time. Only the
+	 * accounts added before this method is called are visited.
+	 */
+	public PrimitiveIterator.OfInt ids() {
+		return new RecordCursor();
+	}
+
+	/**
+	 * This method give a new Account decoded from every record to action, in the
+	 * order they were added. Only the accounts added before this method is called
+	 * are visited, and action may add accounts itself.
+	 */
+	public void forEach(Consumer<Account> action) {
+		for (RecordCursor records = new RecordCursor(); records.hasNext();)
+			action.accept(decode(records.nextRecord()));
+	}
+
+	/**
+	 * A RecordCursor walks the records that were in the slabs when it was
+	 * created. It keeps a duplicate and the end of the records of every slab, and
+	 * the position of the next record, so the records are read one at a time
+	 * without a lock, as they are never changed.
+	 */
+	private class RecordCursor implements PrimitiveIterator.OfInt {
+
+		private final ByteBuffer[] slabs;
+		private final int[] ends;
+		private int slab;
+		private int position;
+
+		RecordCursor() {
+			AccountRegistry registry = AccountRegistry.this;
+			registry.lock.readLock().lock();
+			try {
+				this.slabs = new ByteBuffer[registry.slabs.size()];
+				this.ends = new int[this.slabs.length];
+				for (int i = 0; i < this.slabs.length; i++) {
+					this.slabs[i] = registry.slabs.get(i).duplicate();
+					this.ends[i] = registry.slabs.get(i).position();
+				}
+			} finally {
+				registry.lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.slab < this.slabs.length && this.position >= this.ends[this.slab]) {
+				this.slab++;
+				this.position = 0;
+			}
+			return this.slab < this.slabs.length;
+		}
+
+		/**
+		 * This method return the next record as a buffer whose position is the start
+		 * of the record.
+		 */
+		ByteBuffer nextRecord() {
+			// Exception: there is no record left
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			ByteBuffer record = this.slabs[this.slab];
+			record.position(this.position);
+			this.position += 4 + record.getInt(this.position);
+			return record;
+		}
+
+		@Override
+		public int nextInt() {
+			ByteBuffer record = this.nextRecord();
+			return record.getInt(record.position() + 4);
+		}
+	}
+}
@@ -0,0 +1,400 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * The class AccountSnapshot saves an Account to a compact binary file and loads
+ * it back, which is much faster than parsing the text format again. The file is
+ * read and written through a FileChannel, with a direct ByteBuffer for
+ * writing and a byte array for reading. A snapshot
+ * contains, in order:
+ * 
+ * 1. the int MAGIC and the short VERSION. 2. the name as an int length followed
+ * by its UTF-8 bytes. 3. the int ID. 4. the int number of groups. 5. for every
+ * group: the encoding number as one byte, then as varints the number of values,
+ * the transaction count, the transaction sum, the lowest balance, the number
+ * of overdrafts in this account and every value. 6. the int CRC32C of all the
+ * bytes before it.
+ * 
+ * Varints store 7 bits per byte, and signed numbers are zigzag encoded first,
+ * so small deposits and withdrawals take one byte. The totals of every group
+ * are loaded as they were saved instead of being calculated again, so a group
+ * is built without walking its transactions, and the totals of the account
+ * without counting its overdrafts. A damaged file is noticed by its CRC32C.
+ * This class contains 2 methods, each of them in turn has following functions:
+ * 
+ * @method save(account, file): save the account to the file
+ * @method load(file): load an account from the file
+ */
+public class AccountSnapshot {
+
+	// "EBNK" in ASCII, the first bytes of every snapshot
+	static final int MAGIC = 0x45424E4B;
+	static final short VERSION = 2;
+
+	// The size of the direct buffer used to read and write the file
+	private static final int BUFFER_SIZE = 1 << 16;
+	// The encoding number and the five varints of an empty group
+	private static final int MIN_GROUP_BYTES = 6;
+
+	private AccountSnapshot() {
+	}
+
+	/**
+	 * This method save an account to a file, replacing what was in it. Only the
+	 * groups added before this method is called are saved.
+	 */
+	public static void save(Account account, File file) throws IOException {
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.setLength(0);
+			Writer writer = new Writer(out.getChannel());
+			byte[] name = account.getName().getBytes(StandardCharsets.UTF_8);
+			writer.ensure(6);
+			writer.buffer.putInt(MAGIC).putShort(VERSION);
+			writer.ensure(4);
+			writer.buffer.putInt(name.length);
+			for (int i = 0; i < name.length; i += BUFFER_SIZE) {
+				int length = Math.min(BUFFER_SIZE, name.length - i);
+				writer.ensure(length);
+				writer.buffer.put(name, i, length);
+			}
+			int groupCount = account.getTransactionGroupCount();
+			writer.ensure(8);
+			writer.buffer.putInt(account.getId()).putInt(groupCount);
+			int start = 0;
+			for (int g = 0; g < groupCount; g++) {
+				TransactionGroup t = account.getTransactionGroup(g);
+				int end = start + t.getTransactionCount();
+				writer.ensure(1 + 5 * Varints.MAX_LENGTH);
+				writer.buffer.put((byte) t.getEncoding());
+				writer.putVarint(t.getValueCount());
+				writer.putVarint(t.getTransactionCount());
+				writer.putVarint(Varints.zigzag(t.getTransactionSum()));
+				writer.putVarint(Varints.zigzag(t.getLowestBalance()));
+				// Found from the totals the account keeps, not by walking the group
+				writer.putVarint(account.getNumberOfOverdrafts(start, end));
+				t.forEachValue(writer);
+				start = end;
+			}
+			writer.flush();
+			writer.buffer.putInt((int) writer.crc.getValue());
+			writer.flush();
+		} catch (UncheckedIOException e) {
+			// The Writer can not throw an IOException from inside forEachValue
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * This method load an account from a file written by save. There are several
+	 * errors that may occur: the file we want does not exist, we should throw a
+	 * FileNotFoundException. The file is not a snapshot of this version, ends too
+	 * early, holds a length that does not fit in the rest of the file, a group
+	 * breaks the rules of its encoding type, or the bytes do not match the
+	 * CRC32C, we should throw an IOException.
+	 * 
+	 * @return the account, with the same name, ID and transaction groups as the one
+	 *         that was saved
+	 */
+	public static Account load(File file) throws IOException {
+		// Exception: the file does not exist
+		if (!file.isFile())
+			throw new FileNotFoundException(file.getPath());
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			Reader reader = new Reader(in.getChannel());
+			// Exception: the file is not a snapshot of this version
+			if (reader.getInt() != MAGIC || reader.getShort() != VERSION)
+				throw new IOException(file.getPath() + " is not an account snapshot of version " + VERSION);
+			// Every length is checked before anything of that length is allocated
+			byte[] name = new byte[reader.getLength(1, file)];
+			reader.get(name);
+			Account account = new Account(reader.getInt(), new String(name, StandardCharsets.UTF_8));
+			int groupCount = reader.getLength(MIN_GROUP_BYTES, file);
+			// The groups are added at once with the overdrafts that were saved
+			TransactionGroup[] groups = new TransactionGroup[groupCount];
+			int[] overdrafts = new int[groupCount];
+			for (int g = 0; g < groupCount; g++) {
+				int encoding = reader.get();
+				int valueCount = reader.getVarintLength(1, file);
+				int transactionCount = reader.getVarint();
+				int transactionSum = Varints.unzigzag(reader.getVarint());
+				int lowestBalance = Varints.unzigzag(reader.getVarint());
+				overdrafts[g] = reader.getVarint();
+				if (encoding == 0) {
+					// Binary values go straight into the bits of the group
+					long[] bits = new long[(valueCount + 63) >>> 6];
+					// Exception: a value that is not 0 or 1
+					if (!reader.getBits(bits, valueCount))
+						throw new IOException("transaction group " + g + " of " + file.getPath() + " is damaged");
+					groups[g] = new TransactionGroup(bits, valueCount, transactionCount, transactionSum, lowestBalance);
+					continue;
+				}
+				int[] values = new int[valueCount];
+				reader.getZigzagVarints(values);
+				boolean damaged = encoding < 1 || encoding > 2
+						|| (encoding == 2 && values.length != 0 && values.length != 4);
+				// The same rules as the TransactionGroup initializer, without building a
+				// DataFormatException for a group that was accepted before
+				for (int i = 0; i < values.length; i++)
+					damaged |= encoding == 1 ? values[i] == 0 : values[i] < 0;
+				// Exception: the group breaks the rules of its encoding type
+				if (damaged)
+					throw new IOException("transaction group " + g + " of " + file.getPath() + " is damaged");
+				groups[g] = new TransactionGroup(encoding, values, transactionCount, transactionSum, lowestBalance);
+			}
+			// Exception: the bytes are not the ones that were saved
+			int crc = (int) reader.crc.getValue();
+			if (reader.getInt() != crc || reader.remaining() != 0)
+				throw new IOException(file.getPath() + " is damaged, its CRC32C does not match");
+			account.addTransactionGroups(groups, groups.length, overdrafts);
+			return account;
+		}
+	}
+
+	/**
+	 * A Writer fills a direct buffer and writes it to the channel when it is full,
+	 * and adds every byte it writes to crc. As an IntConsumer it writes every
+	 * value it is given as a zigzag varint.
+	 */
+	private static class Writer implements IntConsumer {
+
+		final FileChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final CRC32C crc = new CRC32C();
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void accept(int value) {
+			this.ensure(Varints.MAX_LENGTH);
+			this.putVarint(Varints.zigzag(value));
+		}
+
+		/**
+		 * This method write an unsigned varint, the caller makes sure there is room
+		 * for it.
+		 */
+		void putVarint(int value) {
+			Varints.put(this.buffer, value);
+		}
+
+		/**
+		 * This method make sure there is room for length more bytes in the buffer.
+		 */
+		void ensure(int length) {
+			if (this.buffer.remaining() < length)
+				this.flush();
+		}
+
+		void flush() {
+			this.buffer.flip();
+			this.crc.update(this.buffer.duplicate());
+			try {
+				while (this.buffer.hasRemaining())
+					this.channel.write(this.buffer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * A Reader fills a byte array from the channel whenever a read needs more
+	 * bytes than are left in it. The numbers are decoded straight from the array
+	 * with its own position, which is much faster than calling get() on a
+	 * ByteBuffer for every byte. Every byte read before the last 4 of the file is
+	 * added to crc.
+	 */
+	private static class Reader {
+
+		final FileChannel channel;
+		final byte[] bytes = new byte[BUFFER_SIZE];
+		final ByteBuffer buffer = ByteBuffer.wrap(this.bytes);
+		// The next byte to decode, and the end of the bytes read from the channel
+		int position;
+		int limit;
+		// The size of the file, and the number of bytes read from the channel
+		final long size;
+		long read;
+		final CRC32C crc = new CRC32C();
+
+		Reader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		/**
+		 * This method return the number of bytes of the file that are not decoded
+		 * yet.
+		 */
+		long remaining() {
+			return this.size - this.read + (this.limit - this.position);
+		}
+
+		/**
+		 * This method read an int length of things that take at least bytesEach
+		 * bytes each in the rest of the file.
+		 * 
+		 * @throws IOException if the length is negative or does not fit
+		 */
+		int getLength(int bytesEach, File file) throws IOException {
+			return this.checkLength(this.getInt(), bytesEach, file);
+		}
+
+		/**
+		 * This method read a varint length the same way as getLength.
+		 */
+		int getVarintLength(int bytesEach, File file) throws IOException {
+			return this.checkLength(this.getVarint(), bytesEach, file);
+		}
+
+		private int checkLength(int length, int bytesEach, File file) throws IOException {
+			// Exception: a damaged length, which would allocate a wrong or huge array
+			if (length < 0 || length > this.remaining() / bytesEach)
+				throw new IOException(file.getPath() + " holds a length of " + length + " with only "
+						+ this.remaining() + " bytes left");
+			return length;
+		}
+
+		/**
+		 * This method make sure at least length bytes can be decoded from the array.
+		 * 
+		 * @throws EOFException if the file ends before that
+		 */
+		void require(int length) throws IOException {
+			if (this.limit - this.position >= length)
+				return;
+			// Exception: the file ends before length bytes
+			if (!this.fill(length))
+				throw new EOFException("account snapshot ends too early");
+		}
+
+		/**
+		 * This method move the bytes that are left to the start of the array and read
+		 * from the channel until at least length bytes can be decoded.
+		 * 
+		 * @return false if the file ends before that
+		 */
+		boolean fill(int length) throws IOException {
+			this.limit -= this.position;
+			System.arraycopy(this.bytes, this.position, this.bytes, 0, this.limit);
+			this.position = 0;
+			this.buffer.clear().position(this.limit);
+			while (this.limit < length) {
+				int read = this.channel.read(this.buffer);
+				if (read < 0)
+					return false;
+				// The bytes of the CRC32C itself are not added to it
+				int checked = (int) Math.max(0, Math.min(read, this.size - 4 - this.read));
+				this.crc.update(this.bytes, this.limit, checked);
+				this.limit += read;
+				this.read += read;
+			}
+			return true;
+		}
+
+		byte get() throws IOException {
+			this.require(1);
+			return this.bytes[this.position++];
+		}
+
+		short getShort() throws IOException {
+			this.require(2);
+			return (short) ((this.bytes[this.position++] << 8) | (this.bytes[this.position++] & 0xFF));
+		}
+
+		int getInt() throws IOException {
+			this.require(4);
+			int value = 0;
+			for (int i = 0; i < 4; i++)
+				value = (value << 8) | (this.bytes[this.position++] & 0xFF);
+			return value;
+		}
+
+		void get(byte[] destination) throws IOException {
+			for (int i = 0; i < destination.length; i += BUFFER_SIZE) {
+				int length = Math.min(BUFFER_SIZE, destination.length - i);
+				this.require(length);
+				System.arraycopy(this.bytes, this.position, destination, i, length);
+				this.position += length;
+			}
+		}
+
+		/**
+		 * This method read an unsigned varint.
+		 */
+		int getVarint() throws IOException {
+			// Near the end of the file there may be fewer bytes left than the longest varint
+			if (this.limit - this.position < Varints.MAX_LENGTH)
+				this.fill(Varints.MAX_LENGTH);
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				// Exception: the file ends inside the varint
+				if (this.position == this.limit)
+					throw new EOFException("account snapshot ends too early");
+				byte b = this.bytes[this.position++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return value;
+			}
+			throw new IOException("account snapshot contains a bad varint");
+		}
+
+		/**
+		 * This method read count binary values straight into bits. A binary value is
+		 * saved as the zigzag varint of 0 or 1, which is the one byte 0 or 2.
+		 * 
+		 * @return false if a byte is not 0 or 2
+		 */
+		boolean getBits(long[] bits, int count) throws IOException {
+			int bad = 0;
+			for (int i = 0; i < count;) {
+				this.require(1);
+				int end = Math.min(count, i + this.limit - this.position);
+				byte[] bytes = this.bytes;
+				int position = this.position;
+				for (; i < end; i++) {
+					int b = bytes[position++];
+					bad |= b & ~2;
+					bits[i >>> 6] |= (long) (b >>> 1) << i;
+				}
+				this.position = position;
+			}
+			return bad == 0;
+		}
+
+		/**
+		 * This method read values.length zigzag varints into values. As many as
+		 * surely fit in the bytes that are left are decoded at once by
+		 * Varints.getZigzags, the rest one by one.
+		 */
+		void getZigzagVarints(int[] values) throws IOException {
+			int i = 0;
+			while (i < values.length) {
+				int fit = (this.limit - this.position) / Varints.MAX_LENGTH;
+				if (fit == 0) {
+					values[i++] = Varints.unzigzag(this.getVarint());
+					continue;
+				}
+				int to = Math.min(values.length, i + fit);
+				int position = Varints.getZigzags(this.bytes, this.position, values, i, to);
+				// Exception: more than Varints.MAX_LENGTH bytes
+				if (position < 0)
+					throw new IOException("account snapshot contains a bad varint");
+				this.position = position;
+				i = to;
+			}
+		}
+	}
+}
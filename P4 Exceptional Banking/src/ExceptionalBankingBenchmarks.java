@@ -0,0 +1,901 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+/**
+ * The class ExceptionalBankingBenchmarks is used to measure the speed of the
+ * Account class and TransactionGroup class on large inputs. This class has
+ * multiple benchmark methods, each benchmark focuses on a specific operation,
+ * runs it on inputs of growing size and prints the time spent per transaction.
+ * If the time per transaction stays about the same while the size grows, the
+ * operation scales linearly. benchmarkHotPaths measures every hot path with
+ * measure, which warms the code up and prints throughput, latency and
+ * allocation like a JMH benchmark does.
+ */
+public class ExceptionalBankingBenchmarks {
+
+	private static final int REPEATS = 5;
+	// How long measure runs an operation before measuring it, and about how long
+	// each measured batch takes
+	private static final long WARMUP_NANOS = 500_000_000L;
+	private static final long BATCH_NANOS = 100_000_000L;
+	// The names of the encoding types, by encoding number
+	private static final String[] TYPE_NAMES = { "binary", "integer", "quick" };
+
+	// Every result of a measured operation is added here, so the JIT can not
+	// remove the work as dead code
+	private static long blackhole;
+
+	/**
+	 * An Operation is one call of the code that measure runs over and over. It is
+	 * given the number of the call, and returns any number calculated from the
+	 * result, which is kept in blackhole.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+		long run(int call) throws DataFormatException, IOException;
+	}
+
+	/**
+	 * This method build a command of one integer amount transaction group with size
+	 * transactions. The amounts are random and never 0.
+	 * 
+	 * @return the command that can be passed to addTransactionGroup
+	 */
+	private static String integerGroupCommand(int size, Random random) {
+		StringBuilder command = new StringBuilder("1");
+		for (int i = 0; i < size; i++) {
+			int amount = random.nextInt(200) - 100;
+			command.append(' ').append(amount == 0 ? 1 : amount);
+		}
+		return command.toString();
+	}
+
+	/**
+	 * This method run an operation in batches and print its throughput, latency
+	 * and allocation. It first warms the operation up for WARMUP_NANOS, so the JIT
+	 * has compiled it, and doubles the batch until one batch takes about
+	 * BATCH_NANOS. Then REPEATS batches are measured. The average and the best
+	 * batch are printed per operation, with the bytes the current thread
+	 * allocated per operation.
+	 */
+	private static void measure(String name, Operation operation) throws DataFormatException, IOException {
+		long check = 0;
+		int batch = 1;
+		long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+		do {
+			long start = System.nanoTime();
+			for (int call = 0; call < batch; call++)
+				check += operation.run(call);
+			if (System.nanoTime() - start < BATCH_NANOS && batch < 1 << 30)
+				batch <<= 1;
+		} while (System.nanoTime() < warmupEnd);
+		long time = 0;
+		long best = Long.MAX_VALUE;
+		long bytes = allocatedBytes();
+		for (int r = 0; r < REPEATS; r++) {
+			long start = System.nanoTime();
+			for (int call = 0; call < batch; call++)
+				check += operation.run(call);
+			long elapsed = System.nanoTime() - start;
+			time += elapsed;
+			best = Math.min(best, elapsed);
+		}
+		bytes = allocatedBytes() - bytes;
+		blackhole += check;
+		long operations = (long) batch * REPEATS;
+		System.out.printf("  %-44s %,15.0f ops/s %12.1f ns/op (best %12.1f) %10.1f B/op%n", name,
+				operations * 1e9 / time, (double) time / operations, (double) best / batch,
+				(double) bytes / operations);
+	}
+
+	/**
+	 * This method build the groupEncoding of a random transaction group of an
+	 * encoding type. Binary and integer groups have size values, binary ones in
+	 * runs of about 4. Quick groups have about size withdraws in their 4 buckets.
+	 * 
+	 * @return the groupEncoding, which is always valid
+	 */
+	private static int[] groupEncoding(int encoding, int size, Random random) {
+		if (encoding == 2)
+			return new int[] { 2, random.nextInt(size / 2 + 1), random.nextInt(size / 2 + 1),
+					random.nextInt(size / 2 + 1), random.nextInt(size / 2 + 1) };
+		int[] group = new int[size + 1];
+		group[0] = encoding;
+		for (int i = 1; i <= size; i++) {
+			if (encoding == 0) {
+				group[i] = random.nextInt(4) == 0 ? 1 - group[i - 1] : group[i - 1];
+			} else {
+				int amount = random.nextInt(200) - 100;
+				group[i] = amount == 0 ? 1 : amount;
+			}
+		}
+		return group;
+	}
+
+	/**
+	 * This method turn a groupEncoding into the command that
+	 * addTransactionGroup takes.
+	 */
+	private static String groupCommand(int[] group) {
+		StringBuilder command = new StringBuilder().append(group[0]);
+		for (int i = 1; i < group.length; i++)
+			command.append(' ').append(group[i]);
+		return command.toString();
+	}
+
+	/**
+	 * We create Accounts with growing numbers of transactions and calculate the
+	 * balance and the overdrafts. The best time of a few repeats is printed per
+	 * transaction.
+	 */
+	public static void benchmarkBalanceScaling() throws DataFormatException {
+		System.out.println("benchmarkBalanceScaling");
+		Random random = new Random(42);
+		for (int size = 1 << 14; size <= 1 << 20; size <<= 1) {
+			Account ac = new Account("benchmark");
+			ac.addTransactionGroup(integerGroupCommand(size, random));
+			long best = Long.MAX_VALUE;
+			int check = 0;
+			for (int r = 0; r < REPEATS; r++) {
+				long start = System.nanoTime();
+				check += ac.getCurrentBalance() + ac.getNumberOfOverdrafts();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("  %8d transactions: %8.3f ms, %6.2f ns/transaction (check %d)%n", size, best / 1e6,
+					(double) best / size, check);
+		}
+	}
+
+	/**
+	 * This method return the number of bytes allocated by the current thread so
+	 * far, or -1 when the JVM can not tell.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	/**
+	 * We parse the same commands with split(" ") and Integer.parseInt, the way
+	 * addTransactionGroup used to, and with a TransactionGroupParser. The time and
+	 * the bytes allocated per command are printed for both.
+	 */
+	public static void benchmarkParsing() throws DataFormatException {
+		System.out.println("benchmarkParsing");
+		Random random = new Random(42);
+		String[] commands = new String[10000];
+		for (int i = 0; i < commands.length; i++)
+			commands[i] = integerGroupCommand(1 + random.nextInt(64), random);
+		TransactionGroupParser parser = new TransactionGroupParser();
+		for (int r = 0; r < REPEATS; r++) {
+			long check = 0;
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (String command : commands) {
+				String[] parts = command.split(" ");
+				int[] group = new int[parts.length];
+				for (int i = 0; i < parts.length; i++)
+					group[i] = Integer.parseInt(parts[i]);
+				check += new TransactionGroup(group).getTransactionCount();
+			}
+			long splitTime = System.nanoTime() - start;
+			long splitBytes = allocatedBytes() - bytes;
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (String command : commands)
+				check -= parser.parse(command).getTransactionCount();
+			long parserTime = System.nanoTime() - start;
+			long parserBytes = allocatedBytes() - bytes;
+			System.out.printf("  split: %7.1f ns %6d B per command, parser: %7.1f ns %6d B per command (check %d)%n",
+					(double) splitTime / commands.length, splitBytes / commands.length,
+					(double) parserTime / commands.length, parserBytes / commands.length, check);
+		}
+	}
+
+	/**
+	 * This method write an account file of about megabytes MB. The groups are a
+	 * random mix of the 3 encoding types, and a few of them are bad.
+	 * 
+	 * @return the new file, which is deleted when the JVM exits
+	 */
+	private static File accountFile(int megabytes, Random random) throws IOException {
+		File file = File.createTempFile("benchmark", ".txt");
+		file.deleteOnExit();
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		out.write("Benchmark\n1000\n");
+		long written = 0;
+		while (written < megabytes * (1L << 20)) {
+			String command;
+			switch (random.nextInt(4)) {
+			case 0:
+				StringBuilder binary = new StringBuilder("0");
+				for (int i = random.nextInt(64); i >= 0; i--)
+					binary.append(random.nextInt(3) == 0 ? " 0" : " 1");
+				command = binary.toString();
+				break;
+			case 1:
+				command = "2 " + random.nextInt(5) + " " + random.nextInt(5) + " " + random.nextInt(5) + " "
+						+ random.nextInt(5);
+				break;
+			case 2:
+				command = random.nextInt(50) == 0 ? "1 5 0 2" : integerGroupCommand(1 + random.nextInt(32), random);
+				break;
+			default:
+				command = integerGroupCommand(1 + random.nextInt(8), random);
+			}
+			out.write(command);
+			out.write('\n');
+			written += command.length() + 1;
+		}
+		out.close();
+		return file;
+	}
+
+	/**
+	 * We write account files of growing size and load each of them with a Scanner
+	 * and addTransactionGroup(String), the way Account(File) used to, and with
+	 * Account(File). The best time of a few repeats and the throughput are
+	 * printed for both.
+	 */
+	public static void benchmarkFileLoading(int[] megabytes) throws IOException {
+		System.out.println("benchmarkFileLoading");
+		Random random = new Random(42);
+		for (int size : megabytes) {
+			File file = accountFile(size, random);
+			long scannerBest = Long.MAX_VALUE;
+			long mappedBest = Long.MAX_VALUE;
+			long check = 0;
+			for (int r = 0; r < REPEATS; r++) {
+				long start = System.nanoTime();
+				Scanner in = new Scanner(file);
+				Account ac = new Account(in.nextLine());
+				in.nextLine();
+				while (in.hasNextLine()) {
+					try {
+						ac.addTransactionGroup(in.nextLine());
+					} catch (DataFormatException e) {
+						// Bad groups are skipped, like Account(File) does
+					}
+				}
+				in.close();
+				scannerBest = Math.min(scannerBest, System.nanoTime() - start);
+				check += ac.getTransactionCount();
+				start = System.nanoTime();
+				check -= new Account(file).getTransactionCount();
+				mappedBest = Math.min(mappedBest, System.nanoTime() - start);
+			}
+			System.out.printf("  %5d MB: Scanner %9.1f ms %7.1f MB/s, mapped %9.1f ms %7.1f MB/s (check %d)%n", size,
+					scannerBest / 1e6, file.length() / 1.048576 / (scannerBest / 1e3), mappedBest / 1e6,
+					file.length() / 1.048576 / (mappedBest / 1e3), check);
+			file.delete();
+		}
+	}
+
+	/**
+	 * We open account files of growing size eagerly and lazily and read the name
+	 * and ID, then ask the lazy account for its balance. The best time of a few
+	 * repeats and the heap used by an account that is only opened are printed for
+	 * both.
+	 */
+	public static void benchmarkLazyOpening(int[] megabytes) throws IOException {
+		System.out.println("benchmarkLazyOpening");
+		Random random = new Random(42);
+		for (int size : megabytes) {
+			File file = accountFile(size, random);
+			long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+			long[] heap = new long[2];
+			for (int r = 0; r < REPEATS; r++) {
+				for (int mode = 0; mode < 2; mode++) {
+					long used = usedHeap();
+					long start = System.nanoTime();
+					Account ac = new Account(file, mode == 1);
+					blackhole += ac.getId() + ac.getName().length();
+					best[mode] = Math.min(best[mode], System.nanoTime() - start);
+					heap[mode] = usedHeap() - used;
+					// The account is used after usedHeap, so it is still on the heap there
+					blackhole += ac.getId();
+					if (mode == 1) {
+						start = System.nanoTime();
+						blackhole += ac.getCurrentBalance();
+						best[2] = Math.min(best[2], System.nanoTime() - start);
+					}
+				}
+			}
+			System.out.printf("  %5d MB: eager open %9.3f ms %,12d B, lazy open %9.3f ms %,8d B,"
+					+ " first query of lazy %9.3f ms%n", size, best[0] / 1e6, heap[0], best[1] / 1e6, heap[1],
+					best[2] / 1e6);
+			file.delete();
+		}
+	}
+
+	/**
+	 * We write account files of growing size, load each of them with Account(File)
+	 * and save it as a snapshot. The best time of a few repeats of loading the
+	 * text file and loading the snapshot is printed, with the size of both files.
+	 * 
+	 * Measured on one core with JDK 17: 16 MB loads in 259.7 ms from text and
+	 * 127.0 ms from the snapshot (2.0x), 64 MB in 818.0 ms and 260.3 ms (3.1x),
+	 * with the snapshot at 61% of the size. This is short of 10x, because most of
+	 * the time left goes to building the 1.76 million TransactionGroup objects of
+	 * 64 MB and adding them to the store, which both ways of loading have to do.
+	 */
+	public static void benchmarkSnapshotLoading(int[] megabytes) throws IOException {
+		System.out.println("benchmarkSnapshotLoading");
+		Random random = new Random(42);
+		for (int size : megabytes) {
+			File text = accountFile(size, random);
+			File snapshot = File.createTempFile("benchmark", ".snapshot");
+			snapshot.deleteOnExit();
+			AccountSnapshot.save(new Account(text), snapshot);
+			long textBest = Long.MAX_VALUE;
+			long snapshotBest = Long.MAX_VALUE;
+			long check = 0;
+			for (int r = 0; r < REPEATS; r++) {
+				long start = System.nanoTime();
+				check += new Account(text).getCurrentBalance();
+				textBest = Math.min(textBest, System.nanoTime() - start);
+				start = System.nanoTime();
+				check -= AccountSnapshot.load(snapshot).getCurrentBalance();
+				snapshotBest = Math.min(snapshotBest, System.nanoTime() - start);
+			}
+			System.out.printf(
+					"  %5d MB: text %9.1f ms, snapshot %9.1f ms, %5.1fx faster, %4.0f%% of the size"
+							+ " (check %d)%n",
+					size, textBest / 1e6, snapshotBest / 1e6, (double) textBest / snapshotBest,
+					100.0 * snapshot.length() / text.length(), check);
+			text.delete();
+			snapshot.delete();
+		}
+	}
+
+	/**
+	 * This method return the bytes of heap in use after a garbage collection.
+	 */
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * We create binary type transaction groups of growing size, with runs of about
+	 * 8 values, and compare the packed bits with the int[] layout they used to
+	 * have: one int per value and one int per run. The heap used per group, the
+	 * time to build a group and the time to look up a random transaction are
+	 * printed for both.
+	 */
+	public static void benchmarkBinaryPacking() throws DataFormatException {
+		System.out.println("benchmarkBinaryPacking");
+		Random random = new Random(42);
+		for (int size = 1 << 6; size <= 1 << 16; size <<= 2) {
+			int[] group = new int[size + 1];
+			for (int i = 1; i <= size; i++)
+				group[i] = random.nextInt(8) == 0 ? 1 - group[i - 1] : group[i - 1];
+			int count = Math.max(1, (1 << 24) / size);
+			TransactionGroup[] packed = new TransactionGroup[count];
+			int[][] values = new int[count][];
+			int[][] runs = new int[count][];
+			// The int[] layout: the values, and the signed amount of every run
+			long heap = usedHeap();
+			long start = System.nanoTime();
+			for (int g = 0; g < count; g++) {
+				values[g] = Arrays.copyOfRange(group, 1, group.length);
+				int runCount = 0;
+				for (int i = 0; i < size; i++)
+					if (i == 0 || values[g][i] != values[g][i - 1])
+						runCount++;
+				runs[g] = new int[runCount];
+				for (int i = 0, run = -1; i < size; i++) {
+					if (i == 0 || values[g][i] != values[g][i - 1])
+						run++;
+					runs[g][run] += values[g][i] == 0 ? -1 : 1;
+				}
+			}
+			long intBuild = System.nanoTime() - start;
+			long intHeap = usedHeap() - heap;
+			heap = usedHeap();
+			start = System.nanoTime();
+			for (int g = 0; g < count; g++)
+				packed[g] = new TransactionGroup(group);
+			long packedBuild = System.nanoTime() - start;
+			long packedHeap = usedHeap() - heap;
+			int transactions = packed[0].getTransactionCount();
+			int lookups = 1 << 20;
+			long intBest = Long.MAX_VALUE;
+			long packedBest = Long.MAX_VALUE;
+			long check = 0;
+			for (int r = 0; r < REPEATS; r++) {
+				Random indexes = new Random(r);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					check += runs[i % count][indexes.nextInt(transactions)];
+				intBest = Math.min(intBest, System.nanoTime() - start);
+				indexes = new Random(r);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					check -= packed[i % count].getTransactionAmount(indexes.nextInt(transactions));
+				packedBest = Math.min(packedBest, System.nanoTime() - start);
+			}
+			System.out.printf(
+					"  %6d values: int[] %8d B %8.1f ns/build %5.1f ns/lookup,"
+							+ " packed %8d B %8.1f ns/build %5.1f ns/lookup (check %d)%n",
+					size, intHeap / count, (double) intBuild / count, (double) intBest / lookups, packedHeap / count,
+					(double) packedBuild / count, (double) packedBest / lookups, check);
+			// Keep both layouts reachable until both were measured
+			check += values.length + runs.length + packed.length;
+		}
+	}
+
+	/**
+	 * We create integer type transaction groups of growing size with amounts
+	 * between -100 and 100, and compare the packed varints with a plain int[] of
+	 * the values. The heap used per group, the time to scan a group for its
+	 * overdrafts and the time to look up a random transaction are printed for
+	 * both.
+	 */
+	public static void benchmarkIntegerPacking() throws DataFormatException {
+		System.out.println("benchmarkIntegerPacking");
+		Random random = new Random(42);
+		for (int size = TransactionGroup.COMPACT_MIN_VALUES; size <= 1 << 16; size <<= 2) {
+			int[] group = new int[size + 1];
+			group[0] = 1;
+			for (int i = 1; i <= size; i++) {
+				int amount = random.nextInt(200) - 100;
+				group[i] = amount == 0 ? 1 : amount;
+			}
+			int count = Math.max(1, (1 << 24) / size);
+			long heap = usedHeap();
+			int[][] values = new int[count][];
+			for (int g = 0; g < count; g++)
+				values[g] = Arrays.copyOfRange(group, 1, group.length);
+			long intHeap = usedHeap() - heap;
+			heap = usedHeap();
+			TransactionGroup[] packed = new TransactionGroup[count];
+			for (int g = 0; g < count; g++)
+				packed[g] = new TransactionGroup(1, group, 1, group.length, true);
+			long packedHeap = usedHeap() - heap;
+			int lookups = 1 << 20;
+			long intScan = Long.MAX_VALUE;
+			long packedScan = Long.MAX_VALUE;
+			long intLookup = Long.MAX_VALUE;
+			long packedLookup = Long.MAX_VALUE;
+			long check = 0;
+			for (int r = 0; r < REPEATS; r++) {
+				long start = System.nanoTime();
+				for (int g = 0; g < Math.min(count, 256); g++) {
+					int balance = 0;
+					for (int amount : values[g]) {
+						balance += amount;
+						if (balance < 0 && amount < 0)
+							check++;
+					}
+				}
+				intScan = Math.min(intScan, System.nanoTime() - start);
+				start = System.nanoTime();
+				for (int g = 0; g < Math.min(count, 256); g++)
+					check -= packed[g].getNumberOfOverdrafts(0);
+				packedScan = Math.min(packedScan, System.nanoTime() - start);
+				Random indexes = new Random(r);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					check += values[i % count][indexes.nextInt(size)];
+				intLookup = Math.min(intLookup, System.nanoTime() - start);
+				indexes = new Random(r);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					check -= packed[i % count].getTransactionAmount(indexes.nextInt(size));
+				packedLookup = Math.min(packedLookup, System.nanoTime() - start);
+			}
+			long scanned = (long) Math.min(count, 256) * size;
+			System.out.printf(
+					"  %6d values: int[] %7d B %5.2f ns/scan %5.1f ns/lookup,"
+							+ " packed %7d B %5.2f ns/scan %5.1f ns/lookup (check %d)%n",
+					size, intHeap / count, (double) intScan / scanned, (double) intLookup / lookups,
+					packedHeap / count, (double) packedScan / scanned, (double) packedLookup / lookups, check);
+			// Keep both layouts reachable until both were measured
+			check += values.length + packed.length;
+		}
+	}
+
+	/**
+	 * We measure every hot path of TransactionGroup and Account for each encoding
+	 * type and for groups of growing size: building and checking a group, parsing
+	 * a command, and the queries of an Account with about 2^20 values in groups of
+	 * that size, including the range queries. Loading an account file is measured
+	 * for each size in megabytes. Every line is printed by measure.
+	 */
+	public static void benchmarkHotPaths(int[] megabytes) throws DataFormatException, IOException {
+		System.out.println("benchmarkHotPaths");
+		Random random = new Random(42);
+		TransactionGroupParser parser = new TransactionGroupParser();
+		for (int encoding = 0; encoding < 3; encoding++) {
+			for (int size = 4; size <= 1 << 14; size <<= 4) {
+				String name = TYPE_NAMES[encoding] + " " + size + " ";
+				// A pool of different groups, so the branches are not always the same
+				int[][] groups = new int[64][];
+				String[] commands = new String[groups.length];
+				for (int g = 0; g < groups.length; g++) {
+					groups[g] = groupEncoding(encoding, size, random);
+					commands[g] = groupCommand(groups[g]);
+				}
+				Account ac = new Account("benchmark");
+				for (int g = 0; g < Math.max(1, (1 << 20) / size); g++)
+					ac.addTransactionGroup(new TransactionGroup(groups[g % groups.length]));
+				int[] indexes = new int[1 << 10];
+				for (int i = 0; i < indexes.length; i++)
+					indexes[i] = random.nextInt(ac.getTransactionCount());
+				TransactionGroup group = ac.getTransactionGroup(0);
+				measure(name + "new TransactionGroup",
+						call -> new TransactionGroup(groups[call & 63]).getTransactionCount());
+				measure(name + "parse", call -> parser.parse(commands[call & 63]).getTransactionCount());
+				measure(name + "addTransactionGroup", call -> {
+					Account empty = new Account("benchmark");
+					empty.addTransactionGroup(commands[call & 63]);
+					return empty.getTransactionCount();
+				});
+				measure(name + "getNumberOfOverdrafts(group)", call -> group.getNumberOfOverdrafts(call & 255));
+				measure(name + "getTransactionCount", call -> ac.getTransactionCount());
+				measure(name + "getTransactionAmount", call -> ac.getTransactionAmount(indexes[call & 1023]));
+				measure(name + "getBalanceAt", call -> ac.getBalanceAt(indexes[call & 1023]));
+				measure(name + "getNumberOfOverdrafts(from, to)",
+						call -> ac.getNumberOfOverdrafts(indexes[call & 1023] / 2, indexes[call & 1023]));
+				measure(name + "getCurrentBalance", call -> ac.getCurrentBalance());
+				measure(name + "getNumberOfOverdrafts", call -> ac.getNumberOfOverdrafts());
+			}
+		}
+		for (int size : megabytes) {
+			File file = accountFile(size, random);
+			measure("Account(File) " + size + " MB", call -> new Account(file).getTransactionCount());
+			file.delete();
+		}
+		System.out.println("  (check " + blackhole + ")");
+	}
+
+	/**
+	 * We parse a feed where half of the commands break a rule, once with parse,
+	 * which throws a DataFormatException for each of them, and once with tryParse,
+	 * which records the error in a reused ValidationResult. Every line is printed
+	 * by measure.
+	 */
+	public static void benchmarkRejections() throws DataFormatException, IOException {
+		System.out.println("benchmarkRejections");
+		Random random = new Random(42);
+		String[] commands = new String[1024];
+		for (int i = 0; i < commands.length; i++) {
+			commands[i] = integerGroupCommand(1 + random.nextInt(8), random);
+			if (i % 2 == 1)
+				commands[i] += random.nextBoolean() ? " 0" : " x";
+		}
+		TransactionGroupParser parser = new TransactionGroupParser();
+		ValidationResult result = new ValidationResult();
+		measure("parse, 50% rejected", call -> {
+			try {
+				return parser.parse(commands[call & 1023]).getTransactionCount();
+			} catch (DataFormatException e) {
+				return e.getMessage().length();
+			}
+		});
+		measure("tryParse, 50% rejected", call -> {
+			TransactionGroup t = parser.tryParse(commands[call & 1023], result);
+			return t != null ? t.getTransactionCount() : result.getMessage().length();
+		});
+	}
+
+	/**
+	 * We keep growing numbers of small accounts, once as Account objects in a
+	 * HashMap by ID and once in an AccountRegistry. The heap used per account is
+	 * printed for both, with the bytes the registry keeps off the heap, and the
+	 * time of looking up the balance of a random ID is measured for both.
+	 */
+	public static void benchmarkRegistry() throws DataFormatException, IOException {
+		System.out.println("benchmarkRegistry");
+		Random random = new Random(42);
+		String[] commands = new String[64];
+		for (int i = 0; i < commands.length; i++)
+			commands[i] = integerGroupCommand(1 + random.nextInt(16), random);
+		for (int count = 1 << 14; count <= 1 << 20; count <<= 3) {
+			long heap = usedHeap();
+			HashMap<Integer, Account> accounts = new HashMap<Integer, Account>();
+			int[] ids = new int[count];
+			for (int a = 0; a < count; a++) {
+				Account ac = new Account("Account " + a);
+				for (int g = 0; g < 4; g++)
+					ac.addTransactionGroup(commands[random.nextInt(commands.length)]);
+				accounts.put(ac.getId(), ac);
+				ids[a] = ac.getId();
+			}
+			long mapHeap = usedHeap() - heap;
+			heap = usedHeap();
+			AccountRegistry registry = new AccountRegistry();
+			for (Account ac : accounts.values())
+				registry.add(ac);
+			long registryHeap = usedHeap() - heap;
+			System.out.printf(
+					"  %8d accounts: HashMap %6d B/account, registry %6d B/account on heap, %6d B/account off heap%n",
+					count, mapHeap / count, registryHeap / count, registry.getRecordBytes() / count);
+			int mask = count - 1;
+			measure("HashMap getCurrentBalance " + count, call -> accounts.get(ids[call & mask]).getCurrentBalance());
+			measure("registry getBalance " + count, call -> registry.getBalance(ids[call & mask]));
+		}
+	}
+
+	/**
+	 * We let writer threads add transaction groups to one Account while reader
+	 * threads read its balance, count and a random transaction, for a fixed time.
+	 * The number of appends and reads per second is printed for different numbers
+	 * of writers and readers.
+	 */
+	public static void benchmarkContention() throws InterruptedException {
+		System.out.println("benchmarkContention");
+		int[][] threadCounts = { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 1, 4 }, { 4, 4 } };
+		for (int[] counts : threadCounts) {
+			Account ac = new Account("benchmark");
+			try {
+				ac.addTransactionGroup("1 5 -3");
+			} catch (DataFormatException e) {
+				throw new IllegalStateException(e);
+			}
+			AtomicBoolean done = new AtomicBoolean(false);
+			AtomicLong appends = new AtomicLong();
+			AtomicLong reads = new AtomicLong();
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for (int w = 0; w < counts[0]; w++)
+				threads.add(new Thread(() -> {
+					long count = 0;
+					try {
+						while (!done.get()) {
+							ac.addTransactionGroup("1 5 -3");
+							count++;
+						}
+					} catch (DataFormatException e) {
+						throw new IllegalStateException(e);
+					}
+					appends.addAndGet(count);
+				}));
+			for (int r = 0; r < counts[1]; r++)
+				threads.add(new Thread(() -> {
+					long count = 0;
+					long check = 0;
+					while (!done.get()) {
+						check += ac.getCurrentBalance() + ac.getTransactionAmount(ac.getTransactionCount() - 1);
+						count++;
+					}
+					reads.addAndGet(count + (check == 42 ? 1 : 0));
+				}));
+			for (Thread thread : threads)
+				thread.start();
+			Thread.sleep(1000);
+			done.set(true);
+			for (Thread thread : threads)
+				thread.join();
+			System.out.printf("  %d writers, %d readers: %,12d appends/s %,12d reads/s%n", counts[0], counts[1],
+					appends.get(), reads.get());
+		}
+	}
+
+	/**
+	 * We let 8 writer threads add transaction groups to their own accounts, which
+	 * all write to one TransactionJournal, for a fixed time. The appends per
+	 * second and the number of forces are printed for every durability and for
+	 * batches of different size, then the journal is replayed and the records
+	 * replayed per second are printed.
+	 */
+	public static void benchmarkJournal() throws IOException, InterruptedException {
+		System.out.println("benchmarkJournal");
+		Object[][] configurations = { { TransactionJournal.Durability.FORCE, 1 },
+				{ TransactionJournal.Durability.FORCE, 8 }, { TransactionJournal.Durability.FORCE, 64 },
+				{ TransactionJournal.Durability.FORCE, 512 }, { TransactionJournal.Durability.WRITE, 64 },
+				{ TransactionJournal.Durability.ASYNC, 64 }, { TransactionJournal.Durability.ASYNC, 512 } };
+		for (Object[] configuration : configurations) {
+			TransactionJournal.Durability durability = (TransactionJournal.Durability) configuration[0];
+			int maxBatchSize = (Integer) configuration[1];
+			File file = File.createTempFile("benchmark", ".journal");
+			file.deleteOnExit();
+			AtomicBoolean done = new AtomicBoolean(false);
+			AtomicLong appends = new AtomicLong();
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			long forces;
+			try (TransactionJournal journal = new TransactionJournal(file, durability, maxBatchSize)) {
+				for (int w = 0; w < 8; w++) {
+					Account ac = new Account("journal " + w);
+					ac.setJournal(journal);
+					threads.add(new Thread(() -> {
+						long count = 0;
+						try {
+							while (!done.get()) {
+								ac.addTransactionGroup("1 5 -3 12 -7");
+								count++;
+							}
+						} catch (DataFormatException e) {
+							throw new IllegalStateException(e);
+						}
+						appends.addAndGet(count);
+					}));
+				}
+				for (Thread thread : threads)
+					thread.start();
+				Thread.sleep(1000);
+				done.set(true);
+				for (Thread thread : threads)
+					thread.join();
+				forces = journal.getForceCount();
+			}
+			long start = System.nanoTime();
+			int replayed = 0;
+			for (Account ac : TransactionJournal.replay(file).values())
+				replayed += ac.getTransactionGroupCount();
+			long nanos = System.nanoTime() - start;
+			System.out.printf("  %-5s batches of %3d: %,10d appends/s %,8d forces, replay %,12.0f groups/s%n",
+					durability, maxBatchSize, appends.get(), forces, replayed * 1e9 / nanos);
+			file.delete();
+		}
+	}
+
+	/**
+	 * We add the same integer type groups of 200 transactions to a store one by
+	 * one, and all at once with addAll on pools of 1 thread and of every core. The
+	 * best time and the time per transaction are printed for each, for accounts
+	 * of growing size.
+	 */
+	public static void benchmarkParallelTotals() throws DataFormatException {
+		System.out.println("benchmarkParallelTotals (" + Runtime.getRuntime().availableProcessors() + " cores)");
+		Random random = new Random(42);
+		TransactionGroup[] groups = new TransactionGroup[1 << 15];
+		for (int g = 0; g < groups.length; g++)
+			groups[g] = new TransactionGroup(groupEncoding(1, 200, random));
+		ForkJoinPool single = new ForkJoinPool(1);
+		for (int count = 1 << 11; count <= groups.length; count <<= 2) {
+			TransactionGroup[] added = Arrays.copyOf(groups, count);
+			long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+			for (int r = 0; r < REPEATS; r++) {
+				for (int mode = 0; mode < 3; mode++) {
+					TransactionGroupStore store = new TransactionGroupStore(Integer.MAX_VALUE);
+					long start = System.nanoTime();
+					if (mode == 0)
+						for (TransactionGroup group : added)
+							store.add(group);
+					else
+						store.addAll(added, mode == 1 ? single : ForkJoinPool.commonPool());
+					best[mode] = Math.min(best[mode], System.nanoTime() - start);
+					blackhole += store.getNumberOfOverdrafts();
+				}
+			}
+			long transactions = 200L * count;
+			System.out.printf("  %9d transactions: add %8.3f ms %5.2f ns/t, addAll 1 thread %8.3f ms %5.2f ns/t,"
+					+ " addAll common pool %8.3f ms %5.2f ns/t%n", transactions, best[0] / 1e6,
+					(double) best[0] / transactions, best[1] / 1e6, (double) best[1] / transactions, best[2] / 1e6,
+					(double) best[2] / transactions);
+		}
+		single.shutdown();
+	}
+
+	/**
+	 * We parse a skewed workload of short commands, where a few quick withdraw and
+	 * binary patterns make up most of the lines, with and without a
+	 * TransactionGroupCache. The time and bytes per command, the hit rate and the
+	 * heap used by the groups of all lines are printed for both.
+	 */
+	public static void benchmarkGroupCache() throws DataFormatException, IOException {
+		System.out.println("benchmarkGroupCache");
+		Random random = new Random(42);
+		String[] distinct = new String[4096];
+		for (int i = 0; i < distinct.length; i++)
+			distinct[i] = groupCommand(groupEncoding(i % 3, 1 + random.nextInt(8), random));
+		// The index is 4096 * r^3, so 40% of the lines are one of the 256 most common
+		// commands
+		String[] commands = new String[1 << 20];
+		for (int i = 0; i < commands.length; i++)
+			commands[i] = distinct[(int) (distinct.length * Math.pow(random.nextDouble(), 3))];
+		int mask = commands.length - 1;
+		for (int capacity : new int[] { 0, 256, 4096 }) {
+			TransactionGroupParser parser = new TransactionGroupParser();
+			TransactionGroupCache cache = capacity == 0 ? null : new TransactionGroupCache(capacity);
+			parser.setCache(cache);
+			String name = capacity == 0 ? "no cache" : "cache of " + capacity;
+			measure("parse " + name, call -> parser.parse(commands[call & mask]).getTransactionCount());
+			long heap = usedHeap();
+			TransactionGroup[] groups = new TransactionGroup[commands.length];
+			for (int i = 0; i < commands.length; i++)
+				groups[i] = parser.parse(commands[i]);
+			heap = usedHeap() - heap;
+			blackhole += groups[random.nextInt(groups.length)].getTransactionCount();
+			System.out.printf("  %-14s %,6d B/line for %,d lines%s%n", name, heap / commands.length,
+					commands.length, cache == null ? "" : String.format(", hit rate %.3f", cache.getHitRate()));
+		}
+	}
+
+	/**
+	 * We write a directory of account files and add them up with AccountAnalytics,
+	 * on one thread and in parallel, and by loading every file as an Account and
+	 * keeping them, which is what callers had to do before. The time and the heap
+	 * used at the end are printed for each.
+	 */
+	public static void benchmarkAnalytics() throws IOException {
+		System.out.println("benchmarkAnalytics (" + Runtime.getRuntime().availableProcessors() + " cores)");
+		Random random = new Random(42);
+		File directory = Files.createTempDirectory("benchmark").toFile();
+		directory.deleteOnExit();
+		ArrayList<File> files = new ArrayList<File>();
+		for (int i = 0; i < 32; i++) {
+			File file = accountFile(1, random);
+			File moved = new File(directory, file.getName());
+			file.renameTo(moved);
+			moved.deleteOnExit();
+			files.add(moved);
+		}
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		long[] heap = new long[3];
+		for (int r = 0; r < REPEATS; r++) {
+			for (int mode = 0; mode < 3; mode++) {
+				long used = usedHeap();
+				long start = System.nanoTime();
+				Object kept;
+				if (mode == 0) {
+					kept = AccountAnalytics.analyze(files.stream(), 10);
+				} else if (mode == 1) {
+					kept = AccountAnalytics.analyze(directory, 10);
+				} else {
+					ArrayList<Account> accounts = new ArrayList<Account>();
+					for (File file : files)
+						accounts.add(new Account(file));
+					accounts.sort((x, y) -> y.getNumberOfOverdrafts() - x.getNumberOfOverdrafts());
+					kept = accounts;
+				}
+				best[mode] = Math.min(best[mode], System.nanoTime() - start);
+				heap[mode] = usedHeap() - used;
+				blackhole += kept.hashCode();
+			}
+		}
+		System.out.printf("  %d files of 1 MB: analytics 1 thread %8.1f ms %,12d B, analytics parallel %8.1f ms"
+				+ " %,12d B, every Account %8.1f ms %,12d B%n", files.size(), best[0] / 1e6, heap[0], best[1] / 1e6,
+				heap[1], best[2] / 1e6, heap[2]);
+		for (File file : files)
+			file.delete();
+		directory.delete();
+	}
+
+	/**
+	 * Benchmark main. Runs each benchmark and prints its results. The arguments
+	 * are the sizes in MB of the files used by benchmarkFileLoading, for example
+	 * 1 1024 4096 for files of 1 MB to 4 GB.
+	 */
+	public static void main(String[] args) throws DataFormatException, IOException, InterruptedException {
+		int[] megabytes = { 1, 16, 64 };
+		if (args.length > 0) {
+			megabytes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				megabytes[i] = Integer.parseInt(args[i]);
+		}
+		benchmarkBalanceScaling();
+		benchmarkParsing();
+		benchmarkBinaryPacking();
+		benchmarkIntegerPacking();
+		benchmarkHotPaths(megabytes);
+		benchmarkRejections();
+		benchmarkRegistry();
+		benchmarkFileLoading(megabytes);
+		benchmarkSnapshotLoading(megabytes);
+		benchmarkLazyOpening(megabytes);
+		benchmarkContention();
+		benchmarkJournal();
+		benchmarkParallelTotals();
+		benchmarkGroupCache();
+		benchmarkAnalytics();
+	}
+}
@@ -1,5 +1,20 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.DataFormatException;
 
 /**
@@ -55,6 +70,301 @@ public class ExceptionalBankingTests {
 		return false;
 	}
 
+	/**
+	 * We create a TransactionGroup object of each encoding type. Then calculate the
+	 * sum and overdrafts in a single pass. This test compares them with the values
+	 * found by looking every transaction up with getTransactionAmount(index).
+	 * Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testSinglePassMatchesIndexed() {
+		int[][] groups = { { 0, 1, 1, 0, 0, 0, 1, 0, 1, 1 }, { 1, 5, -20, 7, -3, 40, -100 }, { 2, 2, 0, 1, 3 },
+				{ 2, 7, 3, 5, 2 } };
+		try {
+			for (int[] group : groups) {
+				TransactionGroup t = new TransactionGroup(group);
+				for (int start = -50; start <= 1000; start += 5) {
+					int balance = start;
+					int overdraftCount = 0;
+					for (int i = 0; i < t.getTransactionCount(); i++) {
+						int amount = t.getTransactionAmount(i);
+						balance += amount;
+						if (balance < 0 && amount < 0)
+							overdraftCount++;
+					}
+					if (balance - start != t.getTransactionSum() || overdraftCount != t.getNumberOfOverdrafts(start))
+						return false;
+				}
+			}
+		} catch (DataFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * We create a binary type TransactionGroup object and look up each of its
+	 * transactions. This test compares the amounts with what we expected. Should
+	 * return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testBinaryRunLookup() {
+		int[] group = { 0, 1, 0, 0, 1, 1, 1, 0 };
+		int[] expected = { 1, -2, 3, -1 };
+		try {
+			TransactionGroup t = new TransactionGroup(group);
+			if (t.getTransactionCount() != expected.length)
+				return false;
+			for (int i = expected.length - 1; i >= 0; i--)
+				if (t.getTransactionAmount(i) != expected[i])
+					return false;
+		} catch (DataFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * We create binary type TransactionGroup objects of random lengths around the
+	 * 64 values of a packed word, and compare the runs with the ones we count from
+	 * the values one by one. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testBinaryPackedWords() {
+		Random random = new Random(12);
+		for (int length : new int[] { 1, 63, 64, 65, 127, 128, 129, 1000 }) {
+			for (int pattern = 0; pattern < 4; pattern++) {
+				int[] group = new int[length + 1];
+				ArrayList<Integer> expected = new ArrayList<Integer>();
+				for (int i = 1; i <= length; i++) {
+					// all 0, all 1, alternating, and long random runs
+					group[i] = pattern == 0 ? 0
+							: pattern == 1 ? 1
+									: pattern == 2 ? i & 1 : random.nextInt(9) == 0 ? 1 - group[i - 1] : group[i - 1];
+					int amount = group[i] == 0 ? -1 : 1;
+					if (i > 1 && group[i] == group[i - 1])
+						expected.set(expected.size() - 1, expected.get(expected.size() - 1) + amount);
+					else
+						expected.add(amount);
+				}
+				try {
+					TransactionGroup t = new TransactionGroup(group);
+					if (t.getTransactionCount() != expected.size() || t.getValueCount() != length)
+						return false;
+					PrimitiveIterator.OfInt cursor = t.iterator();
+					for (int i = 0; i < expected.size(); i++)
+						if (t.getTransactionAmount(i) != expected.get(i) || cursor.nextInt() != expected.get(i))
+							return false;
+					if (cursor.hasNext())
+						return false;
+					int[] values = new int[length];
+					int[] next = { 0 };
+					t.forEachValue(value -> values[next[0]++] = value);
+					if (!Arrays.equals(values, Arrays.copyOfRange(group, 1, group.length)))
+						return false;
+				} catch (DataFormatException e) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * We create large integer type TransactionGroup objects with small amounts,
+	 * which are packed when we ask for it, and with large amounts, which are not.
+	 * This test compares the amounts looked up one by one and from the cursor, the
+	 * sum, the volume and the overdrafts with what we calculate from the values,
+	 * and checks that groups, also the ones parsed by a TransactionGroupParser or
+	 * an Account, are only packed when we ask for it. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testIntegerPacking() {
+		Random random = new Random(13);
+		for (int length : new int[] { TransactionGroup.COMPACT_MIN_VALUES - 1, TransactionGroup.COMPACT_MIN_VALUES,
+				1000, 4097 }) {
+			for (int bound : new int[] { 100, 100000, Integer.MAX_VALUE }) {
+				int[] group = new int[length + 1];
+				group[0] = 1;
+				int sum = 0;
+				long volume = 0;
+				int overdrafts = 0;
+				for (int i = 1; i <= length; i++) {
+					group[i] = random.nextInt(bound) + 1;
+					if (random.nextBoolean())
+						group[i] = -group[i];
+					sum += group[i];
+					volume += Math.abs((long) group[i]);
+					if (sum < 0 && group[i] < 0)
+						overdrafts++;
+				}
+				TransactionGroup plain;
+				try {
+					plain = new TransactionGroup(group);
+				} catch (DataFormatException e) {
+					return false;
+				}
+				TransactionGroup compact = new TransactionGroup(1, group, 1, group.length, true);
+				if (plain.isPacked() || compact
+						.isPacked() != (length >= TransactionGroup.COMPACT_MIN_VALUES && bound != Integer.MAX_VALUE))
+					return false;
+				for (TransactionGroup t : new TransactionGroup[] { plain, compact }) {
+					if (t.getTransactionCount() != length || t.getTransactionSum() != sum
+							|| t.getNumberOfOverdrafts(0) != overdrafts || t.getVolume() != volume)
+						return false;
+					PrimitiveIterator.OfInt cursor = t.iterator();
+					for (int i = 0; i < length; i++)
+						if (cursor.nextInt() != group[i + 1])
+							return false;
+					for (int i = length - 1; i >= 0; i--)
+						if (t.getTransactionAmount(i) != group[i + 1])
+							return false;
+					int[] values = new int[length];
+					int[] next = { 0 };
+					t.forEachValue(value -> values[next[0]++] = value);
+					if (!Arrays.equals(values, Arrays.copyOfRange(group, 1, group.length)))
+						return false;
+				}
+			}
+		}
+		// Parsed groups are only packed after setCompact(true) or setCompactGroups(true)
+		StringBuilder command = new StringBuilder("1");
+		for (int i = 0; i < TransactionGroup.COMPACT_MIN_VALUES; i++)
+			command.append(" -3");
+		TransactionGroupParser parser = new TransactionGroupParser();
+		Account ac = new Account("test");
+		try {
+			if (parser.parse(command).isPacked())
+				return false;
+			parser.setCompact(true);
+			if (!parser.parse(command).isPacked())
+				return false;
+			ac.addTransactionGroup(command.toString());
+			Account.setCompactGroups(true);
+			ac.addTransactionGroup(command.toString());
+		} catch (DataFormatException e) {
+			return false;
+		} finally {
+			Account.setCompactGroups(false);
+		}
+		return !ac.getTransactionGroup(0).isPacked() && ac.getTransactionGroup(1).isPacked();
+	}
+
+	/**
+	 * We create a quick type TransactionGroup object with an empty bucket and look
+	 * up each of its transactions. This test compares the count and the amounts
+	 * with what we expected. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testQuickWithdrawLookup() {
+		int[] group = { 2, 2, 0, 1, 3 };
+		int[] expected = { -20, -20, -80, -100, -100, -100 };
+		try {
+			TransactionGroup t = new TransactionGroup(group);
+			if (t.getTransactionCount() != expected.length)
+				return false;
+			for (int i = 0; i < expected.length; i++)
+				if (t.getTransactionAmount(i) != expected[i])
+					return false;
+		} catch (DataFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * We create an Account object and add random transaction groups of every
+	 * encoding type. After every group, this test compares the balance, the
+	 * overdrafts and the lowest balance with the values found by looking every
+	 * transaction up with getTransactionAmount(index). Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountRunningTotals() {
+		Account ac = new Account("test");
+		Random random = new Random(7);
+		for (int g = 0; g < 200; g++) {
+			StringBuilder cmd = new StringBuilder();
+			int type = random.nextInt(3);
+			cmd.append(type);
+			int size = type == 2 ? 4 : 1 + random.nextInt(10);
+			for (int i = 0; i < size; i++) {
+				int value = type == 0 ? random.nextInt(2) : type == 2 ? random.nextInt(4) : random.nextInt(401) - 200;
+				cmd.append(' ').append(value == 0 && type == 1 ? 7 : value);
+			}
+			try {
+				ac.addTransactionGroup(cmd.toString());
+			} catch (DataFormatException e) {
+				return false;
+			}
+			int balance = 0;
+			int overdraftCount = 0;
+			int lowest = 0;
+			for (int i = 0; i < ac.getTransactionCount(); i++) {
+				int amount = ac.getTransactionAmount(i);
+				balance += amount;
+				lowest = Math.min(lowest, balance);
+				if (balance < 0 && amount < 0)
+					overdraftCount++;
+			}
+			if (balance != ac.getCurrentBalance() || overdraftCount != ac.getNumberOfOverdrafts()
+					|| lowest != ac.getMinimumBalance())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * We create an Account object with groups of every encoding type, including an
+	 * empty quick type group. This test compares the amounts given by iterator(),
+	 * stream() and forEach() of the Account and of each TransactionGroup with the
+	 * amounts found with getTransactionAmount(index). Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testTransactionCursors() {
+		Account ac = new Account("test");
+		String[] cmds = { "0 1 1 0 1", "2 0 0 0 0", "2", "1 4 -9 12", "2 1 0 2 1", "0 0" };
+		try {
+			for (String cmd : cmds)
+				ac.addTransactionGroup(cmd);
+		} catch (DataFormatException e) {
+			return false;
+		}
+		int[] expected = new int[ac.getTransactionCount()];
+		for (int i = 0; i < expected.length; i++)
+			expected[i] = ac.getTransactionAmount(i);
+		ArrayList<Integer> visited = new ArrayList<Integer>();
+		ac.forEach(amount -> visited.add(amount));
+		int[] fromIterator = new int[expected.length];
+		PrimitiveIterator.OfInt cursor = ac.iterator();
+		for (int i = 0; i < expected.length; i++)
+			fromIterator[i] = cursor.nextInt();
+		if (cursor.hasNext() || !Arrays.equals(fromIterator, expected)
+				|| !Arrays.equals(ac.stream().toArray(), expected)
+				|| !Arrays.equals(visited.stream().mapToInt(Integer::intValue).toArray(), expected))
+			return false;
+		TransactionGroupParser parser = new TransactionGroupParser();
+		try {
+			for (String cmd : cmds) {
+				TransactionGroup t = parser.parse(cmd);
+				int[] amounts = new int[t.getTransactionCount()];
+				for (int i = 0; i < amounts.length; i++)
+					amounts[i] = t.getTransactionAmount(i);
+				if (!Arrays.equals(t.stream().toArray(), amounts))
+					return false;
+			}
+		} catch (DataFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * We try to initialize a TransactionGroup object with a null parameter This
 	 * test compares the exception message caught with what we expected. Should
@@ -133,6 +443,240 @@ public class ExceptionalBankingTests {
 		return false;
 	}
 
+	/**
+	 * This method create a TransactionGroup the way addTransactionGroup used to:
+	 * split the command by " ", parse every part with Integer.parseInt and pass
+	 * the numbers to the TransactionGroup initializer.
+	 * 
+	 * @return the message of the exception thrown, or the transaction count and
+	 *         sum of the new group when there is no exception
+	 */
+	private static String splitAndParse(String command) {
+		String[] parts = command.split(" ");
+		int[] group = new int[parts.length];
+		try {
+			for (int i = 0; i < parts.length; i++)
+				group[i] = Integer.parseInt(parts[i]);
+		} catch (NumberFormatException e) {
+			return TransactionGroupParser.FORMAT_MESSAGE;
+		}
+		try {
+			TransactionGroup t = new TransactionGroup(group);
+			return t.getTransactionCount() + " " + t.getTransactionSum();
+		} catch (DataFormatException e) {
+			return e.getMessage();
+		}
+	}
+
+	/**
+	 * We parse many commands, good and bad ones, with a TransactionGroupParser from
+	 * a String, a char array and a byte buffer. This test compares the result with
+	 * what splitAndParse returns for the same command. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testParserMatchesSplit() {
+		String[] commands = { "", " ", "   ", "0", "1", "2", "3", "-1", "0 1 1 0", "0 1 1 0  ", " 0 1", "0  1",
+				"0 1 2", "0 1 2 x", "3 x", "3 1", "1 5 -7 +8 007", "1 5 0 3", "1 -0", "1 2147483647 -2147483648",
+				"1 2147483648", "1 -2147483649", "1 +", "1 -", "1 +-3", "1 5	6", "2 1 1 1 1", "2 1 1", "2 -1 1",
+				"2 1 1 1 -1", "2 1 1 1 1 1", "0 \u0661 \u0660", "1 \u0663\u0662" };
+		TransactionGroupParser parser = new TransactionGroupParser();
+		for (String command : commands) {
+			String expected = splitAndParse(command);
+			for (int source = 0; source < 3; source++) {
+				String actual;
+				try {
+					TransactionGroup t;
+					if (source == 0)
+						t = parser.parse(command);
+					else if (source == 1)
+						t = parser.parse(("#" + command).toCharArray(), 1, command.length());
+					else if (command.chars().allMatch(c -> c < 128))
+						t = parser.parse(ByteBuffer.wrap(("#" + command).getBytes()), 1, command.length());
+					else
+						continue;
+					actual = t.getTransactionCount() + " " + t.getTransactionSum();
+				} catch (DataFormatException e) {
+					actual = e.getMessage();
+				}
+				if (!actual.equals(expected)) {
+					System.out.println("  \"" + command + "\" from source " + source + ": " + actual);
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * We check commands and groupEncodings with the methods that do not throw, and
+	 * compare the reason, the message and the position with what we expected, and
+	 * the messages with the ones the throwing methods give. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testValidationResult() {
+		String[] commands = { "0 1 2 1", "1 5 x", "1 5 -3 +", "2 1 -1 0 0", "2 1 1 1 1 1", "7 1", "  ", "", "1 5 0" };
+		RejectionReason[] reasons = { RejectionReason.BINARY, RejectionReason.FORMAT, RejectionReason.FORMAT,
+				RejectionReason.QUICK_NEGATIVE, RejectionReason.QUICK_SIZE, RejectionReason.ENCODING,
+				RejectionReason.EMPTY, RejectionReason.FORMAT, RejectionReason.INTEGER };
+		int[] positions = { 4, 4, 8, 4, 10, 0, 0, 0, 4 };
+		TransactionGroupParser parser = new TransactionGroupParser();
+		ValidationResult result = new ValidationResult();
+		for (int i = 0; i < commands.length; i++) {
+			if (parser.tryParse(commands[i], result) != null || result.isValid() || result.getReason() != reasons[i]
+					|| result.getPosition() != positions[i])
+				return false;
+			try {
+				parser.parse(commands[i]);
+				return false;
+			} catch (DataFormatException e) {
+				if (!e.getMessage().equals(result.getMessage()))
+					return false;
+			}
+		}
+		// The same result is reused for a good command
+		TransactionGroup t = parser.tryParse("1 5 -3", result);
+		if (t == null || !result.isValid() || result.getGroup() != t || result.getPosition() != -1)
+			return false;
+		int[][] groups = { { 0, 1, 0 }, { 1, 5, 0 }, { 2, 1, 2, -3, 4 }, {}, { 2, 1, 2 }, { 1, -4 } };
+		ValidationResult[] results = new ValidationResult[groups.length];
+		if (TransactionGroup.validateAll(groups, results) != 2 || !results[0].isValid()
+				|| results[1].getPosition() != 2 || results[2].getReason() != RejectionReason.QUICK_NEGATIVE
+				|| results[2].getPosition() != 3 || results[3].getReason() != RejectionReason.EMPTY
+				|| results[4].getReason() != RejectionReason.QUICK_SIZE || !results[5].isValid())
+			return false;
+		Account ac = new Account("test");
+		return !ac.tryAddTransactionGroup("1 0", result) && ac.tryAddTransactionGroup("1 4", result)
+				&& ac.getCurrentBalance() == 4 && TransactionGroup.tryCreate(groups[1], result) == null
+				&& TransactionGroup.tryCreate(groups[0], result).getTransactionCount() == 2;
+	}
+
+	/**
+	 * We create an Account object with small and large groups of every encoding
+	 * type, some of them above the 64 transactions that get checkpoints, and ask
+	 * for balances, sums and overdrafts of random ranges. This test compares them
+	 * with what we count from the amounts one by one. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testRangeQueries() {
+		Random random = new Random(17);
+		Account ac = new Account("test");
+		try {
+			for (int g = 0; g < 60; g++) {
+				int size = random.nextBoolean() ? 1 + random.nextInt(8) : 60 + random.nextInt(400);
+				StringBuilder command = new StringBuilder().append(g % 3);
+				for (int i = 0; i < (g % 3 == 2 ? 4 : size); i++) {
+					int amount = g % 3 == 0 ? random.nextInt(2)
+							: g % 3 == 2 ? random.nextInt(size / 2 + 1) : random.nextInt(41) - 20;
+					command.append(' ').append(g % 3 == 1 && amount == 0 ? 7 : amount);
+				}
+				ac.addTransactionGroup(command.toString());
+			}
+		} catch (DataFormatException e) {
+			return false;
+		}
+		int count = ac.getTransactionCount();
+		// balances[i] and overdrafts[i] are the totals of the first i transactions
+		int[] balances = new int[count + 1];
+		int[] overdrafts = new int[count + 1];
+		PrimitiveIterator.OfInt amounts = ac.iterator();
+		for (int i = 0; i < count; i++) {
+			int amount = amounts.nextInt();
+			balances[i + 1] = balances[i] + amount;
+			overdrafts[i + 1] = overdrafts[i] + (balances[i + 1] < 0 && amount < 0 ? 1 : 0);
+		}
+		if (overdrafts[count] != ac.getNumberOfOverdrafts())
+			return false;
+		for (int i = 0; i < count; i++)
+			if (ac.getBalanceAt(i) != balances[i + 1])
+				return false;
+		for (int r = 0; r < 2000; r++) {
+			int from = random.nextInt(count + 1);
+			int to = from + random.nextInt(count - from + 1);
+			if (ac.getRangeSum(from, to) != balances[to] - balances[from]
+					|| ac.getNumberOfOverdrafts(from, to) != overdrafts[to] - overdrafts[from])
+				return false;
+		}
+		try {
+			ac.getRangeSum(5, 4);
+			return false;
+		} catch (IndexOutOfBoundsException e) {
+			return ac.getRangeSum(count, count) == 0;
+		}
+	}
+
+	/**
+	 * We add the same random groups, enough for many blocks of addAll, to one
+	 * store one by one and to another store partly one by one and then all at
+	 * once on a pool of 4 threads, and to a third store after only 10 groups, and
+	 * to a fourth store as the first groups of a larger array with their count.
+	 * This test compares the totals after every group and the balances and
+	 * overdrafts before random transactions. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testParallelTotals() {
+		Random random = new Random(20);
+		TransactionGroup[] groups = new TransactionGroup[3000];
+		try {
+			for (int g = 0; g < groups.length; g++) {
+				int type = random.nextInt(3);
+				int[] encoding = new int[1 + (type == 2 ? 4 : 1 + random.nextInt(random.nextInt(8) == 0 ? 1000 : 100))];
+				encoding[0] = type;
+				for (int i = 1; i < encoding.length; i++)
+					encoding[i] = type == 0 ? random.nextInt(2)
+							: type == 2 ? random.nextInt(50) : random.nextInt(200) - 100 | 1;
+				groups[g] = new TransactionGroup(encoding);
+			}
+		} catch (DataFormatException e) {
+			return false;
+		}
+		TransactionGroupStore expected = new TransactionGroupStore(Integer.MAX_VALUE);
+		for (TransactionGroup group : groups)
+			expected.add(group);
+		TransactionGroupStore actual = new TransactionGroupStore(Integer.MAX_VALUE);
+		for (int g = 0; g < 100; g++)
+			actual.add(groups[g]);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		boolean added = actual.addAll(Arrays.copyOfRange(groups, 100, groups.length), pool);
+		pool.shutdown();
+		if (!added || actual.size() != expected.size()
+				|| actual.getNumberOfOverdrafts() != expected.getNumberOfOverdrafts()
+				|| actual.getLowestBalance() != expected.getLowestBalance()
+				|| actual.getBalance() != expected.getBalance())
+			return false;
+		for (int g = 0; g < groups.length; g++)
+			if (actual.get(g) != groups[g] || actual.getGroupStart(g) != expected.getGroupStart(g))
+				return false;
+		for (int r = 0; r < 5000; r++) {
+			int index = random.nextInt(expected.getTransactionCount() + 1);
+			if (actual.getBalanceBefore(index) != expected.getBalanceBefore(index)
+					|| actual.getOverdraftsBefore(index) != expected.getOverdraftsBefore(index))
+				return false;
+		}
+		// The first segment is still small when addAll starts in it
+		TransactionGroupStore small = new TransactionGroupStore(Integer.MAX_VALUE);
+		for (int g = 0; g < 10; g++)
+			small.add(groups[g]);
+		if (!small.addAll(Arrays.copyOfRange(groups, 10, groups.length), ForkJoinPool.commonPool())
+				|| small.getNumberOfOverdrafts() != expected.getNumberOfOverdrafts()
+				|| small.getBalanceBefore(5000) != expected.getBalanceBefore(5000)
+				|| small.getOverdraftsBefore(5000) != expected.getOverdraftsBefore(5000))
+			return false;
+		// Only the first count groups of the array are added
+		TransactionGroupStore counted = new TransactionGroupStore(Integer.MAX_VALUE);
+		if (!counted.addAll(Arrays.copyOf(groups, 2 * groups.length), groups.length, ForkJoinPool.commonPool())
+				|| counted.size() != expected.size()
+				|| counted.getNumberOfOverdrafts() != expected.getNumberOfOverdrafts()
+				|| counted.getOverdraftsBefore(5000) != expected.getOverdraftsBefore(5000))
+			return false;
+		// Groups that do not fit are not added at all
+		TransactionGroupStore full = new TransactionGroupStore(10);
+		return !full.addAll(groups, ForkJoinPool.commonPool()) && full.size() == 0;
+	}
+
 	/**
 	 * We create an Account object and try to add a transaction group and get the
 	 * amount with a bad index This test compares the exception message caught with
@@ -156,6 +700,54 @@ public class ExceptionalBankingTests {
 		return false;
 	}
 
+	/**
+	 * We create an Account object and add many transaction groups, more than one
+	 * segment of the store can hold. This test compares the count, the amount of
+	 * every transaction and the balance with what we expected. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountManyGroups() {
+		Account ac = new Account("test");
+		int groups = 300;
+		try {
+			// Group i has the transactions i + 1 and -1
+			for (int i = 0; i < groups; i++)
+				ac.addTransactionGroup("1 " + (i + 1) + " -1");
+		} catch (DataFormatException e) {
+			return false;
+		}
+		if (ac.getTransactionCount() != 2 * groups)
+			return false;
+		for (int i = 0; i < groups; i++)
+			if (ac.getTransactionAmount(2 * i) != i + 1 || ac.getTransactionAmount(2 * i + 1) != -1)
+				return false;
+		return ac.getCurrentBalance() == groups * (groups + 1) / 2 - groups;
+	}
+
+	/**
+	 * We create an Account object that holds at most 2 transaction groups and try
+	 * to add 3 groups. This test compares the error message caught with what we
+	 * expected. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountGroupLimit() {
+		String errMsg = "the capacity of this Account object’s internal array storage is 2";
+		Account ac = new Account("test", 2);
+		try {
+			ac.addTransactionGroup("0 1 0");
+			ac.addTransactionGroup("1 5");
+			ac.addTransactionGroup("2 1 1 1 1");
+		} catch (OutOfMemoryError e) {
+			if (e.getMessage().equals(errMsg) && ac.getTransactionCount() == 3)
+				return true;
+		} catch (DataFormatException e) {
+			return false;
+		}
+		return false;
+	}
+
 	/**
 	 * This test compares the exception message caught with what we expected. Should
 	 * return true.
@@ -175,6 +767,715 @@ public class ExceptionalBankingTests {
 		return false;
 	}
 
+	/**
+	 * We write an account file with different line breaks and some bad transaction
+	 * groups, and read it with AccountFileReader using windows of many sizes. This
+	 * test compares the lines with what a Scanner reads from the same file. Should
+	 * return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountFileReaderMatchesScanner() {
+		String content = "Mapped Reader\r\n1234\n0 1 1 0\r\n1 5 -7\r2 1 x 1 1\n\n1 3 \r\n2 1 2 3 4\n1 -9";
+		try {
+			File file = File.createTempFile("account", ".txt");
+			file.deleteOnExit();
+			Files.write(file.toPath(), content.getBytes());
+			ArrayList<String> expected = new ArrayList<String>();
+			Scanner in = new Scanner(file);
+			while (in.hasNextLine())
+				expected.add(splitAndParse(in.nextLine()));
+			in.close();
+			for (int windowSize = 1; windowSize <= content.length() + 1; windowSize++) {
+				AccountFileReader reader = new AccountFileReader(file, windowSize);
+				ArrayList<String> actual = new ArrayList<String>();
+				while (reader.hasNextLine()) {
+					try {
+						TransactionGroup t = reader.nextTransactionGroup(new TransactionGroupParser());
+						actual.add(t.getTransactionCount() + " " + t.getTransactionSum());
+					} catch (DataFormatException e) {
+						actual.add(e.getMessage());
+					}
+				}
+				reader.close();
+				if (!actual.equals(expected) || reader.getPosition() != content.length())
+					return false;
+			}
+			Account ac = new Account(file);
+			return ac.getName().equals("Mapped Reader") && ac.getId() == 1234 && ac.getCurrentBalance() == -747
+					&& ac.getTransactionCount() == 16;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * We write a directory of account files, one of them with a bad ID line and two
+	 * of them with the same ID, and load it with an AccountLoader. This test
+	 * compares the registry and the report with what we expected, and checks that
+	 * a new Account gets an ID larger than all loaded ones and that the bad file
+	 * is not left open. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountLoaderDirectory() {
+		try {
+			File directory = Files.createTempDirectory("accounts").toFile();
+			directory.deleteOnExit();
+			int files = 100;
+			for (int i = 0; i < files; i++) {
+				File file = new File(directory, "account" + i + ".txt");
+				file.deleteOnExit();
+				String id = i == 7 ? "seven" : i == 8 ? "500009" : Integer.toString(500000 + i);
+				Files.write(file.toPath(), ("Name " + i + "\n" + id + "\n1 " + (i + 1) + "\n0 1 0").getBytes());
+			}
+			AccountLoader loader = new AccountLoader();
+			AccountLoadReport report = loader.load(directory);
+			if (report.getFileCount() != files || report.getFailureCount() != 2 || loader.size() != files - 2)
+				return false;
+			for (int i = 0; i < files; i++)
+				if (i != 7 && i != 8 && i != 9 && loader.getAccount(500000 + i).getCurrentBalance() != i + 1)
+					return false;
+			// The file with the bad ID line is closed every time it fails, which we can
+			// see in the open files of the process where the system lists them
+			File openFiles = new File("/proc/self/fd");
+			if (openFiles.isDirectory()) {
+				int open = openFiles.list().length;
+				for (int i = 0; i < 50; i++)
+					if (loader.load(Arrays.asList(new File(directory, "account7.txt"))).getFailureCount() != 1)
+						return false;
+				if (openFiles.list().length > open + 5)
+					return false;
+			}
+			return new Account("test").getId() >= 500000 + files;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * We write an account file with one good group of every encoding type and one
+	 * bad group for every rejection reason, and load it with an IngestionMetrics
+	 * listener. This test compares the counts with what we expected. Should
+	 * return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testIngestionMetrics() {
+		IngestionMetrics metrics = new IngestionMetrics();
+		try {
+			File file = File.createTempFile("metrics", ".txt");
+			file.deleteOnExit();
+			String[] groups = { "1 5 -3", "0 1 0 0", "2 1 0 0 1", "x", "3 1", "0 2", "1 0", "2 1 2", "2 1 -1 0 0", "",
+					"   " };
+			Files.write(file.toPath(), ("Metrics\n1234\n" + String.join("\n", groups) + "\n").getBytes());
+			Account.setIngestionListener(metrics);
+			Account ac = new Account(file);
+			Account.setIngestionListener(null);
+			if (ac.getTransactionCount() != 6 || metrics.getFilesLoaded() != 1 || metrics.getLinesRead() != 13
+					|| metrics.getBytesRead() != file.length() || metrics.getGroupsAccepted() != 3
+					|| metrics.getGroupsRejected() != 8)
+				return false;
+			if (!Arrays.equals(metrics.getGroupCounts(), new long[] { 1, 1, 1 })
+					|| !Arrays.equals(metrics.getTransactionCounts(), new long[] { 2, 2, 2 }))
+				return false;
+			for (RejectionReason reason : RejectionReason.values())
+				if (metrics.getRejectionCount(reason) != (reason == RejectionReason.FORMAT ? 2 : 1))
+					return false;
+			long histogram = 0;
+			for (long count : metrics.getParseLatencyHistogram())
+				histogram += count;
+			// Nothing is counted after the listener is removed
+			new Account(file);
+			return histogram == groups.length && metrics.getFilesLoaded() == 1;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			Account.setIngestionListener(null);
+		}
+	}
+
+	/**
+	 * We write a directory of random account files with some bad groups and one
+	 * file that is not an account file, and analyze it in parallel. This test
+	 * compares every total, the histogram, the totals of every encoding type and
+	 * the top 5 accounts with what we count from the accounts loaded one by one,
+	 * and checks that merging the totals of two halves gives the same result.
+	 * Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountAnalytics() {
+		Random random = new Random(23);
+		try {
+			File directory = Files.createTempDirectory("analytics").toFile();
+			directory.deleteOnExit();
+			ArrayList<File> files = new ArrayList<File>();
+			for (int a = 0; a < 40; a++) {
+				StringBuilder content = new StringBuilder("Analytics " + a + "\n" + (7000 + a) + "\n");
+				for (int g = random.nextInt(30); g > 0; g--)
+					content.append(random.nextInt(10) == 0 ? "0 5" : random.nextInt(3) == 0 ? "2 1 0 3 1"
+							: random.nextBoolean() ? "0 1 0 0 1" : integerCommand(1 + random.nextInt(90), random))
+							.append('\n');
+				File file = new File(directory, "account" + a + ".txt");
+				file.deleteOnExit();
+				Files.write(file.toPath(), content.toString().getBytes());
+				files.add(file);
+			}
+			File bad = new File(directory, "bad.txt");
+			bad.deleteOnExit();
+			Files.write(bad.toPath(), "No ID\nabc\n".getBytes());
+			AccountAnalytics analytics = AccountAnalytics.analyze(directory, 5);
+			long balance = 0;
+			long overdrafts = 0;
+			long[] histogram = new long[AccountAnalytics.BUCKETS];
+			long[] transactions = new long[3];
+			long[] volumes = new long[3];
+			ArrayList<Account> accounts = new ArrayList<Account>();
+			for (File file : files) {
+				Account ac = new Account(file);
+				accounts.add(ac);
+				balance += ac.getCurrentBalance();
+				overdrafts += ac.getNumberOfOverdrafts();
+				histogram[AccountAnalytics.getBucket(ac.getCurrentBalance())]++;
+				for (int g = 0; g < ac.getTransactionGroupCount(); g++) {
+					TransactionGroup t = ac.getTransactionGroup(g);
+					transactions[t.getEncoding()] += t.getTransactionCount();
+					volumes[t.getEncoding()] += t.stream().asLongStream().map(Math::abs).sum();
+				}
+			}
+			if (analytics.getAccountCount() != 40 || analytics.getFailedFileCount() != 1
+					|| analytics.getTotalBalance() != balance || analytics.getTotalOverdrafts() != overdrafts
+					|| !Arrays.equals(analytics.getBalanceHistogram(), histogram)
+					|| !Arrays.equals(analytics.getTransactionCounts(), transactions)
+					|| !Arrays.equals(analytics.getVolumes(), volumes))
+				return false;
+			accounts.sort((x, y) -> x.getNumberOfOverdrafts() != y.getNumberOfOverdrafts()
+					? y.getNumberOfOverdrafts() - x.getNumberOfOverdrafts()
+					: x.getId() - y.getId());
+			List<AccountAnalytics.RankedAccount> top = analytics.getTopOverdrafts();
+			if (top.size() != 5)
+				return false;
+			for (int i = 0; i < top.size(); i++)
+				if (top.get(i).getId() != accounts.get(i).getId()
+						|| top.get(i).getNumberOfOverdrafts() != accounts.get(i).getNumberOfOverdrafts())
+					return false;
+			AccountAnalytics first = AccountAnalytics.analyze(files.subList(0, 20).stream(), 5);
+			AccountAnalytics second = AccountAnalytics.analyze(files.subList(20, 40).stream(), 5);
+			AccountAnalytics merged = first.merge(second);
+			return merged.getTotalBalance() == balance
+					&& merged.getRejectedGroupCount() == analytics.getRejectedGroupCount()
+					&& merged.getTopOverdrafts().get(0).getId() == top.get(0).getId()
+					&& AccountAnalytics.getBucket(0) == 32 && AccountAnalytics.getBucket(1) == 33
+					&& AccountAnalytics.getBucket(-4) == 29 && AccountAnalytics.getBucket(Integer.MIN_VALUE) == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * We parse repeated commands with a parser that uses a TransactionGroupCache
+	 * of 2 groups. This test checks that a repeated command gets the same group,
+	 * that the least recently used group is dropped, that bad and long commands
+	 * are not kept and still fail the same way, that the counts are right, that a
+	 * segmented cache shared by several threads keeps its counts and capacity, and
+	 * that accounts that use the cache get the same transactions as accounts that
+	 * do not. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testTransactionGroupCache() {
+		TransactionGroupCache cache = new TransactionGroupCache(2, 16);
+		TransactionGroupParser parser = new TransactionGroupParser();
+		parser.setCache(cache);
+		ValidationResult result = new ValidationResult();
+		try {
+			TransactionGroup quick = parser.parse("2 1 0 3 1");
+			if (parser.parse("2 1 0 3 1") != quick || cache.getHits() != 1)
+				return false;
+			// The same characters from a byte buffer find the same group
+			ByteBuffer bytes = ByteBuffer.wrap("x 0 1 1".getBytes());
+			TransactionGroup binary = parser.parse(bytes, 2, 5);
+			if (parser.parse("0 1 1".toCharArray(), 0, 5) != binary)
+				return false;
+			// quick was used least recently, so it is dropped for a third group
+			parser.parse("1 5 -3");
+			if (parser.parse("0 1 1") != binary || parser.parse("2 1 0 3 1") == quick || cache.getEvictions() != 2)
+				return false;
+			if (parser.tryParse("0 1 2", result) != null || result.getReason() != RejectionReason.BINARY
+					|| parser.tryParse("0 1 2", result) != null || result.getPosition() != 4)
+				return false;
+			String longCommand = "1 100 200 300 400 500";
+			if (parser.parse(longCommand) == parser.parse(longCommand) || cache.size() != 2)
+				return false;
+		} catch (DataFormatException e) {
+			return false;
+		}
+		if (cache.getHits() != 3 || cache.getMisses() != 6 || cache.getHitRate() != 3.0 / 9)
+			return false;
+		// A larger cache is split into segments, which several threads share
+		TransactionGroupCache shared = new TransactionGroupCache(256);
+		AtomicBoolean same = new AtomicBoolean(true);
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < 4; w++) {
+			threads.add(new Thread(() -> {
+				TransactionGroupParser own = new TransactionGroupParser();
+				own.setCache(shared);
+				try {
+					for (int i = 0; i < 5000; i++) {
+						int amount = 1 + i % 400;
+						TransactionGroup t = own.parse("1 " + amount + " -1");
+						if (t.getTransactionSum() != amount - 1)
+							same.set(false);
+					}
+				} catch (DataFormatException e) {
+					same.set(false);
+				}
+			}));
+		}
+		try {
+			for (Thread thread : threads)
+				thread.start();
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			return false;
+		}
+		if (!same.get() || shared.getHits() + shared.getMisses() != 4 * 5000 || shared.size() > 256
+				|| shared.getMisses() < shared.size() + shared.getEvictions())
+			return false;
+		Random random = new Random(22);
+		String[] commands = new String[500];
+		for (int i = 0; i < commands.length; i++)
+			commands[i] = random.nextBoolean() ? "2 " + random.nextInt(3) + " 0 1 0"
+					: "0 1 " + random.nextInt(2) + " 1";
+		Account plain = new Account("plain");
+		Account cached = new Account("cached");
+		try {
+			for (String command : commands)
+				plain.addTransactionGroup(command);
+			Account.setGroupCache(new TransactionGroupCache(8));
+			for (String command : commands)
+				cached.addTransactionGroup(command);
+		} catch (DataFormatException e) {
+			return false;
+		} finally {
+			Account.setGroupCache(null);
+		}
+		return Arrays.equals(plain.stream().toArray(), cached.stream().toArray())
+				&& plain.getNumberOfOverdrafts() == cached.getNumberOfOverdrafts();
+	}
+
+	/**
+	 * We open the same file with good and bad groups eagerly and lazily. The lazy
+	 * account must know its name and ID without parsing, then several threads ask
+	 * for its balance at once. This test checks that the groups were loaded only
+	 * once, that both accounts have the same transactions, that lines appended to
+	 * the file later are not read, and that a group added to a lazy account comes
+	 * after the groups of the file. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testLazyAccount() {
+		IngestionMetrics metrics = new IngestionMetrics();
+		try {
+			File file = File.createTempFile("lazy", ".txt");
+			file.deleteOnExit();
+			Files.write(file.toPath(), "Lazy\n4444\n1 5 -30\nx\n0 1 0 0\r\n3 1\n2 1 0 0 1\n1 0\n1 -2 4".getBytes());
+			Account eager = new Account(file);
+			Account.setIngestionListener(metrics);
+			Account lazy = new Account(file, true);
+			Account other = new Account(file, true);
+			if (!lazy.isLazy() || !lazy.getName().equals("Lazy") || lazy.getId() != 4444
+					|| metrics.getFilesLoaded() != 0)
+				return false;
+			Files.write(file.toPath(), "\n1 1000".getBytes(), StandardOpenOption.APPEND);
+			int[] balances = new int[4];
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < balances.length; i++) {
+				int index = i;
+				threads.add(new Thread(() -> balances[index] = lazy.getCurrentBalance()));
+			}
+			for (Thread thread : threads)
+				thread.start();
+			for (Thread thread : threads)
+				thread.join();
+			Account.setIngestionListener(null);
+			for (int balance : balances)
+				if (balance != eager.getCurrentBalance())
+					return false;
+			if (lazy.isLazy() || metrics.getFilesLoaded() != 1 || metrics.getGroupsRejected() != 3
+					|| !Arrays.equals(lazy.stream().toArray(), eager.stream().toArray())
+					|| lazy.getNumberOfOverdrafts() != eager.getNumberOfOverdrafts())
+				return false;
+			other.addTransactionGroup("1 9");
+			return other.getTransactionCount() == eager.getTransactionCount() + 1
+					&& other.getTransactionAmount(eager.getTransactionCount()) == 9;
+		} catch (IOException | InterruptedException | DataFormatException e) {
+			return false;
+		} finally {
+			Account.setIngestionListener(null);
+		}
+	}
+
+	/**
+	 * We add many accounts with random groups to an AccountRegistry with small
+	 * slabs, so the records are spread over many of them and the index grows
+	 * several times. This test compares the cached totals, the decoded accounts
+	 * and the order of the IDs with the accounts we added, checks that accounts
+	 * added while the registry is walked are not visited, and that a duplicate and
+	 * a missing ID are refused. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountRegistry() {
+		Random random = new Random(18);
+		AccountRegistry registry = new AccountRegistry(1 << 12);
+		ArrayList<Account> accounts = new ArrayList<Account>();
+		try {
+			for (int a = 0; a < 3000; a++) {
+				Account ac = new Account("Name " + a + (a % 7 == 0 ? " \u00e9" : ""));
+				for (int g = random.nextInt(5); g > 0; g--) {
+					// Every 100th account has a group larger than a slab
+					int size = 1 + random.nextInt(a % 100 == 0 ? 2000 : 20);
+					ac.addTransactionGroup(random.nextInt(3) == 2 ? "2 1 0 3 1"
+							: random.nextBoolean() ? "0 1 1 0 1" : integerCommand(size, random));
+				}
+				registry.add(ac);
+				accounts.add(ac);
+			}
+		} catch (DataFormatException e) {
+			return false;
+		}
+		if (registry.size() != accounts.size())
+			return false;
+		PrimitiveIterator.OfInt ids = registry.ids();
+		for (Account ac : accounts) {
+			int id = ac.getId();
+			if (ids.nextInt() != id || !registry.getName(id).equals(ac.getName())
+					|| registry.getBalance(id) != ac.getCurrentBalance()
+					|| registry.getNumberOfOverdrafts(id) != ac.getNumberOfOverdrafts()
+					|| registry.getMinimumBalance(id) != ac.getMinimumBalance()
+					|| registry.getTransactionCount(id) != ac.getTransactionCount())
+				return false;
+			Account copy = registry.get(id);
+			if (copy.getId() != id || copy.getTransactionCount() != ac.getTransactionCount())
+				return false;
+			for (int i = 0; i < ac.getTransactionCount(); i++)
+				if (copy.getTransactionAmount(i) != ac.getTransactionAmount(i))
+					return false;
+		}
+		int[] visited = { 0 };
+		PrimitiveIterator.OfInt before = registry.ids();
+		// Accounts added by the action are not visited, neither by a cursor from
+		// before
+		registry.forEach(ac -> {
+			visited[0]++;
+			registry.add(new Account("Late " + ac.getId()));
+		});
+		int seen = 0;
+		for (; before.hasNext(); before.nextInt())
+			seen++;
+		if (ids.hasNext() || visited[0] != accounts.size() || seen != accounts.size()
+				|| registry.size() != 2 * accounts.size() || registry.contains(-5))
+			return false;
+		try {
+			registry.add(accounts.get(10));
+			return false;
+		} catch (IllegalStateException e) {
+			// A duplicate ID is refused
+		}
+		try {
+			registry.getBalance(-5);
+			return false;
+		} catch (NoSuchElementException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * We let several threads add groups to accounts that write to one journal
+	 * with group commits, close it and replay it. This test compares the replayed
+	 * accounts with the originals, checks that fewer forces than groups were
+	 * needed, that flush and close force the records written with WRITE
+	 * durability, that a record cut short at the end is dropped by replay and by
+	 * opening the journal again, that a group a closed journal can not write is
+	 * not added, that replayed accounts attached again do not make the journal
+	 * grow, and that a record damaged in the middle makes both throw an
+	 * IOException instead. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testTransactionJournal() {
+		try {
+			File file = File.createTempFile("journal", ".log");
+			file.deleteOnExit();
+			Account[] accounts = new Account[4];
+			AtomicBoolean ok = new AtomicBoolean(true);
+			try (TransactionJournal journal = new TransactionJournal(file, TransactionJournal.Durability.FORCE, 64)) {
+				for (int a = 0; a < accounts.length; a++) {
+					accounts[a] = new Account("Journal " + a + " \u00e9");
+					// Groups added before setJournal are written by it
+					accounts[a].addTransactionGroup("1 -5 3");
+					accounts[a].setJournal(journal);
+				}
+				ArrayList<Thread> threads = new ArrayList<Thread>();
+				for (int w = 0; w < 8; w++) {
+					Random random = new Random(w);
+					threads.add(new Thread(() -> {
+						try {
+							for (int i = 0; i < 200; i++) {
+								Account ac = accounts[random.nextInt(accounts.length)];
+								ac.addTransactionGroup(random.nextInt(3) == 0 ? "2 1 0 3 1"
+										: random.nextBoolean() ? "0 1 1 0 1"
+												: integerCommand(1 + random.nextInt(100), random));
+							}
+						} catch (DataFormatException e) {
+							ok.set(false);
+						}
+					}));
+				}
+				for (Thread thread : threads)
+					thread.start();
+				for (Thread thread : threads)
+					thread.join();
+				if (journal.getForceCount() >= 8 * 200)
+					return false;
+			}
+			if (!ok.get() || !sameAccounts(accounts, TransactionJournal.replay(file)))
+				return false;
+			// A record cut short, as if the program stopped while writing it
+			long length = file.length();
+			Files.write(file.toPath(), new byte[] { 0, 0, 0, 40, 1, 2 }, StandardOpenOption.APPEND);
+			if (!sameAccounts(accounts, TransactionJournal.replay(file)))
+				return false;
+			TransactionJournal written = new TransactionJournal(file, TransactionJournal.Durability.WRITE, 1);
+			try {
+				if (file.length() != length)
+					return false;
+				accounts[0].setJournal(written);
+				accounts[0].addTransactionGroup("1 7");
+				// WRITE does not force the records, only flush and close do
+				if (written.getForceCount() != 0)
+					return false;
+				written.flush();
+				if (written.getForceCount() != 1)
+					return false;
+				accounts[0].addTransactionGroup("1 8");
+			} finally {
+				written.close();
+			}
+			if (written.getForceCount() != 2)
+				return false;
+			// A group the closed journal can not write is not added either
+			try {
+				accounts[0].addTransactionGroup("1 5");
+				return false;
+			} catch (UncheckedIOException e) {
+				// The journal is closed
+			}
+			if (!sameAccounts(accounts, TransactionJournal.replay(file)))
+				return false;
+			// Accounts replayed from the journal are not written to it again, only the
+			// group added after the first restart is
+			for (int restart = 0; restart < 2; restart++) {
+				Map<Integer, Account> replayed = TransactionJournal.replay(file);
+				length = file.length();
+				try (TransactionJournal journal = new TransactionJournal(file, TransactionJournal.Durability.WRITE,
+						1)) {
+					for (Account ac : replayed.values())
+						ac.setJournal(journal, false);
+					if (restart == 0)
+						replayed.get(accounts[1].getId()).addTransactionGroup("1 9");
+				}
+				if (file.length() - length != (restart == 0 ? 8 + 8 : 0)
+						|| !sameAccounts(replayed.values().toArray(new Account[0]), TransactionJournal.replay(file)))
+					return false;
+			}
+			// A record damaged in the middle is not cut off with the records after it
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			bytes[bytes.length / 2] ^= 1;
+			Files.write(file.toPath(), bytes);
+			try {
+				TransactionJournal.replay(file);
+				return false;
+			} catch (IOException e) {
+				// The file is damaged
+			}
+			try {
+				new TransactionJournal(file, TransactionJournal.Durability.WRITE, 1).close();
+				return false;
+			} catch (IOException e) {
+				return file.length() == bytes.length;
+			}
+		} catch (IOException | DataFormatException | InterruptedException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * This method check that replayed holds an account with the same name, ID and
+	 * transactions as every account in expected.
+	 */
+	private static boolean sameAccounts(Account[] expected, Map<Integer, Account> replayed) {
+		if (replayed.size() != expected.length)
+			return false;
+		for (Account ac : expected) {
+			Account copy = replayed.get(ac.getId());
+			if (copy == null || !copy.getName().equals(ac.getName())
+					|| copy.getTransactionGroupCount() != ac.getTransactionGroupCount()
+					|| !Arrays.equals(copy.stream().toArray(), ac.stream().toArray())
+					|| copy.getNumberOfOverdrafts() != ac.getNumberOfOverdrafts())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * This method build a random integer type command with size values.
+	 */
+	private static String integerCommand(int size, Random random) {
+		StringBuilder command = new StringBuilder("1");
+		for (int i = 0; i < size; i++) {
+			int amount = random.nextInt(200) - 100;
+			command.append(' ').append(amount == 0 ? 1 : amount);
+		}
+		return command.toString();
+	}
+
+	/**
+	 * We create an Account object and let several threads add the same transaction
+	 * group "1 2 -1" while other threads read it. Every transaction with an even
+	 * index must be 2 and every odd one -1, the balance must never go down and
+	 * there must never be an overdraft. This test compares what the readers see
+	 * and the final totals with what we expected. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountConcurrentAppends() {
+		Account ac = new Account("test");
+		int writers = 4;
+		int groupsPerWriter = 5000;
+		AtomicBoolean ok = new AtomicBoolean(true);
+		AtomicBoolean done = new AtomicBoolean(false);
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < writers; w++)
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < groupsPerWriter; i++)
+						ac.addTransactionGroup("1 2 -1");
+				} catch (DataFormatException e) {
+					ok.set(false);
+				}
+			}));
+		for (int r = 0; r < 2; r++)
+			threads.add(new Thread(() -> {
+				int lastBalance = 0;
+				Random random = new Random();
+				while (!done.get()) {
+					int balance = ac.getCurrentBalance();
+					int count = ac.getTransactionCount();
+					if (balance < lastBalance || ac.getNumberOfOverdrafts() != 0)
+						ok.set(false);
+					lastBalance = balance;
+					if (count > 0) {
+						int index = random.nextInt(count);
+						if (ac.getTransactionAmount(index) != (index % 2 == 0 ? 2 : -1))
+							ok.set(false);
+					}
+				}
+			}));
+		for (Thread thread : threads)
+			thread.start();
+		try {
+			for (int w = 0; w < writers; w++)
+				threads.get(w).join();
+			done.set(true);
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			return false;
+		}
+		int groups = writers * groupsPerWriter;
+		return ok.get() && ac.getTransactionCount() == 2 * groups && ac.getCurrentBalance() == groups;
+	}
+
+	/**
+	 * We load an account from a text file, save it as a snapshot and load the
+	 * snapshot again. This test compares the name, ID, groups and transactions of
+	 * the two accounts, and checks that a snapshot cut short, with a damaged
+	 * length or with a changed value can not be loaded. Should return true.
+	 * 
+	 * @return true when they are the same, false otherwise
+	 */
+	public static boolean testAccountSnapshotRoundTrip() {
+		String content = "Snapshot \u00e9\n4321\n0 1 1 0 0 0 1\n1 300 -7 -1000000 2147483647 -2147483648\n2\n"
+				+ "2 3 0 5 1\n1 0\n0 0";
+		// A group large enough for checkpoints, which walks its transactions anyway
+		StringBuilder large = new StringBuilder("1");
+		for (int i = 0; i < 100; i++)
+			large.append(i % 3 == 0 ? " 4" : " -3");
+		content += "\n" + large;
+		try {
+			File text = File.createTempFile("account", ".txt");
+			text.deleteOnExit();
+			Files.write(text.toPath(), content.getBytes());
+			File snapshot = File.createTempFile("account", ".snapshot");
+			snapshot.deleteOnExit();
+			Account expected = new Account(text);
+			AccountSnapshot.save(expected, snapshot);
+			Account actual = AccountSnapshot.load(snapshot);
+			if (!actual.getName().equals(expected.getName()) || actual.getId() != expected.getId()
+					|| actual.getTransactionGroupCount() != expected.getTransactionGroupCount()
+					|| !Arrays.equals(actual.stream().toArray(), expected.stream().toArray())
+					|| actual.getNumberOfOverdrafts() != expected.getNumberOfOverdrafts()
+					|| actual.getMinimumBalance() != expected.getMinimumBalance())
+				return false;
+			for (int i = 0; i <= expected.getTransactionCount(); i++)
+				if (actual.getNumberOfOverdrafts(0, i) != expected.getNumberOfOverdrafts(0, i))
+					return false;
+			byte[] bytes = Files.readAllBytes(snapshot.toPath());
+			// A changed value is only noticed by the CRC32C
+			byte[] changed = bytes.clone();
+			changed[bytes.length - 6] ^= 2;
+			Files.write(snapshot.toPath(), changed);
+			try {
+				AccountSnapshot.load(snapshot);
+				return false;
+			} catch (IOException e) {
+				// The account is not loaded
+			}
+			// The name length, the group count and the value count of the first group,
+			// damaged to a negative and to a huge length
+			int nameLength = ByteBuffer.wrap(bytes, 6, 4).getInt();
+			int groupCount = 6 + 4 + nameLength + 4;
+			byte[][] lengths = { { -1, -1, -1, -1 }, { 0x7F, -1, -1, -1 } };
+			byte[][] varints = { { -1, -1, -1, -1, 0x0F }, { -1, -1, -1, -1, 0x07 } };
+			for (int i = 0; i < 2; i++)
+				for (int offset : new int[] { 6, groupCount, groupCount + 5 }) {
+					byte[] damaged = bytes.clone();
+					byte[] length = offset == groupCount + 5 ? varints[i] : lengths[i];
+					System.arraycopy(length, 0, damaged, offset, length.length);
+					Files.write(snapshot.toPath(), damaged);
+					try {
+						AccountSnapshot.load(snapshot);
+						return false;
+					} catch (IOException e) {
+						// A damaged snapshot is an IOException, not an error of the heap
+					}
+				}
+			Files.write(snapshot.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+			try {
+				AccountSnapshot.load(snapshot);
+				return false;
+			} catch (IOException e) {
+				return true;
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Testing main. Runs each test and prints which (if any) failed. If no problem
 	 * occurs, print a single line showing "All tests passed!".
@@ -189,6 +1490,34 @@ public class ExceptionalBankingTests {
 			System.out.println("testOverdraftCount failed");
 			fails++;
 		}
+		if (!testSinglePassMatchesIndexed()) {
+			System.out.println("testSinglePassMatchesIndexed failed");
+			fails++;
+		}
+		if (!testBinaryRunLookup()) {
+			System.out.println("testBinaryRunLookup failed");
+			fails++;
+		}
+		if (!testBinaryPackedWords()) {
+			System.out.println("testBinaryPackedWords failed");
+			fails++;
+		}
+		if (!testIntegerPacking()) {
+			System.out.println("testIntegerPacking failed");
+			fails++;
+		}
+		if (!testQuickWithdrawLookup()) {
+			System.out.println("testQuickWithdrawLookup failed");
+			fails++;
+		}
+		if (!testAccountRunningTotals()) {
+			System.out.println("testAccountRunningTotals failed");
+			fails++;
+		}
+		if (!testTransactionCursors()) {
+			System.out.println("testTransactionCursors failed");
+			fails++;
+		}
 		if (!testTransactionGroupEmpty()) {
 			System.out.println("testTransactionGroupEmpty failed");
 			fails++;
@@ -205,10 +1534,74 @@ public class ExceptionalBankingTests {
 			System.out.println("testAccountBadTransactionGroup failed");
 			fails++;
 		}
+		if (!testParserMatchesSplit()) {
+			System.out.println("testParserMatchesSplit failed");
+			fails++;
+		}
+		if (!testValidationResult()) {
+			System.out.println("testValidationResult failed");
+			fails++;
+		}
+		if (!testRangeQueries()) {
+			System.out.println("testRangeQueries failed");
+			fails++;
+		}
 		if (!testAccountIndexOutOfBounds()) {
 			System.out.println("testAccountIndexOutOfBounds failed");
 			fails++;
 		}
+		if (!testAccountManyGroups()) {
+			System.out.println("testAccountManyGroups failed");
+			fails++;
+		}
+		if (!testAccountGroupLimit()) {
+			System.out.println("testAccountGroupLimit failed");
+			fails++;
+		}
+		if (!testAccountFileReaderMatchesScanner()) {
+			System.out.println("testAccountFileReaderMatchesScanner failed");
+			fails++;
+		}
+		if (!testAccountLoaderDirectory()) {
+			System.out.println("testAccountLoaderDirectory failed");
+			fails++;
+		}
+		if (!testIngestionMetrics()) {
+			System.out.println("testIngestionMetrics failed");
+			fails++;
+		}
+		if (!testParallelTotals()) {
+			System.out.println("testParallelTotals failed");
+			fails++;
+		}
+		if (!testAccountAnalytics()) {
+			System.out.println("testAccountAnalytics failed");
+			fails++;
+		}
+		if (!testTransactionGroupCache()) {
+			System.out.println("testTransactionGroupCache failed");
+			fails++;
+		}
+		if (!testLazyAccount()) {
+			System.out.println("testLazyAccount failed");
+			fails++;
+		}
+		if (!testAccountRegistry()) {
+			System.out.println("testAccountRegistry failed");
+			fails++;
+		}
+		if (!testTransactionJournal()) {
+			System.out.println("testTransactionJournal failed");
+			fails++;
+		}
+		if (!testAccountConcurrentAppends()) {
+			System.out.println("testAccountConcurrentAppends failed");
+			fails++;
+		}
+		if (!testAccountSnapshotRoundTrip()) {
+			System.out.println("testAccountSnapshotRoundTrip failed");
+			fails++;
+		}
 		if (!testAccountMissingFile()) {
 			System.out.println("testAccountMissingFile");
 			fails++;
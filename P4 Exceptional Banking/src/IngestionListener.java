@@ -0,0 +1,47 @@
+import java.io.File;
+
+/**
+ * An IngestionListener is told about every transaction group that
+ * Account(File) reads. Set one with Account.setIngestionListener. When no
+ * listener is set, Account(File) does not even read the clock, so loading costs
+ * the same as without metrics. The methods may be called by many threads at
+ * once, when several files are loaded in parallel. This interface contains 3
+ * methods, each of them in turn has following functions:
+ * 
+ * @method groupAccepted(encoding, transactionCount, nanos): a group was parsed
+ *         and added
+ * @method groupRejected(reason, nanos): a group was skipped because it broke a
+ *         rule
+ * @method fileLoaded(file, lines, bytes, nanos): all lines of a file were read
+ */
+public interface IngestionListener {
+
+	/**
+	 * This method is called after a transaction group was parsed and added.
+	 * 
+	 * @param encoding         the encoding number of the group: 0, 1 or 2
+	 * @param transactionCount the number of transactions in the group
+	 * @param nanos            the nanoseconds spent parsing the line
+	 */
+	void groupAccepted(int encoding, int transactionCount, long nanos);
+
+	/**
+	 * This method is called after a line was skipped because it is not a good
+	 * transaction group.
+	 * 
+	 * @param reason the rule the line broke
+	 * @param nanos  the nanoseconds spent parsing the line
+	 */
+	void groupRejected(RejectionReason reason, long nanos);
+
+	/**
+	 * This method is called after the last line of a file was read, with the
+	 * totals of the file.
+	 * 
+	 * @param file  the file that was loaded
+	 * @param lines the number of lines, including the name and the ID
+	 * @param bytes the size of the file
+	 * @param nanos the nanoseconds spent loading the file
+	 */
+	void fileLoaded(File file, long lines, long bytes, long nanos);
+}
@@ -0,0 +1,187 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * An IngestionMetrics object is an IngestionListener that counts what
+ * Account(File) reads: files, lines and bytes, accepted groups and
+ * transactions by encoding type, rejected groups by RejectionReason, and a
+ * histogram of the time spent parsing each line. Every count is a LongAdder, so
+ * threads that load files in parallel do not fight over one counter. The
+ * counts can be read directly or through JMX after register() is called. This
+ * class contains 10 private field, 1 initializer and 3 methods next to the
+ * IngestionListener and IngestionMetricsMBean methods, each of them in turn has
+ * following functions:
+ * 
+ * @Initializer: create metrics with every count 0.
+ * 
+ * @method getRejectionCount(reason): return the number of groups rejected for
+ *         the reason
+ * @method register(): register the metrics with the platform MBeanServer
+ * @method toString(): return a short summary of the counts
+ */
+public class IngestionMetrics implements IngestionListener, IngestionMetricsMBean {
+
+	// The name the metrics are registered under by register()
+	public static final String OBJECT_NAME = "ExceptionalBanking:type=IngestionMetrics";
+	// One bucket for every bit of a long number of nanoseconds
+	private static final int HISTOGRAM_SIZE = 64;
+
+	private final LongAdder files = new LongAdder();
+	private final LongAdder lines = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder loadTime = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder[] rejections = adders(RejectionReason.values().length);
+	private final LongAdder[] groups = adders(3);
+	private final LongAdder[] transactions = adders(3);
+	private final LongAdder[] latencies = adders(HISTOGRAM_SIZE);
+
+	/**
+	 * This initializer will create metrics with every count 0.
+	 */
+	public IngestionMetrics() {
+	}
+
+	private static LongAdder[] adders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		for (int i = 0; i < size; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	private static long[] sums(LongAdder[] adders) {
+		long[] sums = new long[adders.length];
+		for (int i = 0; i < adders.length; i++)
+			sums[i] = adders[i].sum();
+		return sums;
+	}
+
+	@Override
+	public void groupAccepted(int encoding, int transactionCount, long nanos) {
+		this.accepted.increment();
+		this.groups[encoding].increment();
+		this.transactions[encoding].add(transactionCount);
+		this.parsed(nanos);
+	}
+
+	@Override
+	public void groupRejected(RejectionReason reason, long nanos) {
+		this.rejected.increment();
+		this.rejections[reason.ordinal()].increment();
+		this.parsed(nanos);
+	}
+
+	/**
+	 * This method put the parse time of a line into the histogram. The bucket is
+	 * the index of the highest bit of nanos.
+	 */
+	private void parsed(long nanos) {
+		this.latencies[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+	}
+
+	@Override
+	public void fileLoaded(File file, long lines, long bytes, long nanos) {
+		this.files.increment();
+		this.lines.add(lines);
+		this.bytes.add(bytes);
+		this.loadTime.add(nanos);
+	}
+
+	public long getRejectionCount(RejectionReason reason) {
+		return this.rejections[reason.ordinal()].sum();
+	}
+
+	@Override
+	public long getFilesLoaded() {
+		return this.files.sum();
+	}
+
+	@Override
+	public long getLinesRead() {
+		return this.lines.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return this.bytes.sum();
+	}
+
+	@Override
+	public long getLoadTimeNanos() {
+		return this.loadTime.sum();
+	}
+
+	@Override
+	public long getGroupsAccepted() {
+		return this.accepted.sum();
+	}
+
+	@Override
+	public long getGroupsRejected() {
+		return this.rejected.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRejectionCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (RejectionReason reason : RejectionReason.values())
+			counts.put(reason.name(), this.getRejectionCount(reason));
+		return counts;
+	}
+
+	@Override
+	public long[] getGroupCounts() {
+		return sums(this.groups);
+	}
+
+	@Override
+	public long[] getTransactionCounts() {
+		return sums(this.transactions);
+	}
+
+	@Override
+	public long[] getParseLatencyHistogram() {
+		return sums(this.latencies);
+	}
+
+	/**
+	 * This method set every count back to 0. Counts added by other threads at the
+	 * same time may be lost or kept.
+	 */
+	@Override
+	public void reset() {
+		for (LongAdder adder : new LongAdder[] { this.files, this.lines, this.bytes, this.loadTime, this.accepted,
+				this.rejected })
+			adder.reset();
+		for (LongAdder[] adders : new LongAdder[][] { this.rejections, this.groups, this.transactions,
+				this.latencies })
+			for (LongAdder adder : adders)
+				adder.reset();
+	}
+
+	/**
+	 * This method register the metrics with the platform MBeanServer under
+	 * OBJECT_NAME, so they can be read with jconsole. A registered object with the
+	 * same name is replaced.
+	 */
+	public void register() throws JMException {
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+	}
+
+	@Override
+	public String toString() {
+		return this.getFilesLoaded() + " files, " + this.getLinesRead() + " lines, " + this.getBytesRead()
+				+ " bytes, " + this.getGroupsAccepted() + " groups accepted, " + this.getGroupsRejected()
+				+ " rejected " + this.getRejectionCounts();
+	}
+}
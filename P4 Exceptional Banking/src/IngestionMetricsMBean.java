@@ -0,0 +1,44 @@
+import java.util.Map;
+
+/**
+ * The management interface of IngestionMetrics, which is what a JMX client
+ * like jconsole shows. Every count is since the metrics were created or last
+ * reset.
+ */
+public interface IngestionMetricsMBean {
+
+	long getFilesLoaded();
+
+	long getLinesRead();
+
+	long getBytesRead();
+
+	long getLoadTimeNanos();
+
+	long getGroupsAccepted();
+
+	long getGroupsRejected();
+
+	/**
+	 * The number of rejected groups by the name of their RejectionReason.
+	 */
+	Map<String, Long> getRejectionCounts();
+
+	/**
+	 * The number of accepted groups by encoding number.
+	 */
+	long[] getGroupCounts();
+
+	/**
+	 * The number of transactions in accepted groups by encoding number.
+	 */
+	long[] getTransactionCounts();
+
+	/**
+	 * The number of lines by parse time, bucket i counts the lines that took from
+	 * 2^i to 2^(i+1) - 1 nanoseconds.
+	 */
+	long[] getParseLatencyHistogram();
+
+	void reset();
+}
@@ -0,0 +1,48 @@
+/**
+ * A RejectionReason tells which rule a rejected transaction group broke. There
+ * is one reason for every distinct message of the DataFormatException thrown
+ * by the TransactionGroup initializer and by addTransactionGroup. This enum
+ * contains 1 private field and 2 methods, each of them in turn has following
+ * functions:
+ * 
+ * @method getMessage(): return the message of the exception for this reason
+ * @method of(message): return the reason of an exception message
+ */
+public enum RejectionReason {
+	// A part of the command is not an integer
+	FORMAT(TransactionGroupParser.FORMAT_MESSAGE),
+	// The command contains no number at all
+	EMPTY(TransactionGroup.EMPTY_MESSAGE),
+	// The encoding number is not 0, 1 or 2
+	ENCODING(TransactionGroup.ENCODING_MESSAGE),
+	// A binary value is not 0 or 1
+	BINARY(TransactionGroup.BINARY_MESSAGE),
+	// An integer value is 0
+	INTEGER(TransactionGroup.INTEGER_MESSAGE),
+	// A quick withdraw group does not have 4 values
+	QUICK_SIZE(TransactionGroup.QUICK_SIZE_MESSAGE),
+	// A quick withdraw value is negative
+	QUICK_NEGATIVE(TransactionGroup.QUICK_NEGATIVE_MESSAGE);
+
+	private final String message;
+
+	private RejectionReason(String message) {
+		this.message = message;
+	}
+
+	public String getMessage() {
+		return this.message;
+	}
+
+	/**
+	 * This method find the reason of an exception message.
+	 * 
+	 * @return the reason, or null if no reason has this message
+	 */
+	public static RejectionReason of(String message) {
+		for (RejectionReason reason : values())
+			if (reason.message.equals(message))
+				return reason;
+		return null;
+	}
+}
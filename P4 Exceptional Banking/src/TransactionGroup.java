@@ -1,18 +1,71 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 import java.util.zip.DataFormatException;
 
 /**
  * Each TransactionGroup instance represents a group of transactions with the
- * same encoding type. This class contains two private field: type(EncodingType
- * object) and values(int[] type object). This class provides a initializer and
- * 2 methods, each of them in turn has following functions:
+ * same encoding type. This class contains two main private field:
+ * type(EncodingType object) and values(int[] type object). Binary groups are
+ * packed into a long[] of bits with a run index (runRanks) instead, and quick
+ * groups keep the cumulative bucket offsets (bucketEnds), both are built once
+ * in the initializer together with the cached transactionCount, transactionSum
+ * and lowestBalance. Large integer groups can be packed into zigzag varints
+ * with a checkpoint every 64 values when that takes less memory, which is
+ * optional because it makes lookups and scans slower: only a
+ * TransactionGroupParser after setCompact(true) packs them. This class
+ * provides 6 initializer and 14 methods, each of them in turn has following
+ * functions:
  * 
  * @Initializer: load a int[] type groupEncoding, process it, try to get the
  *               type and values, throw exception if there is any, store the
  *               type and values.
+ * @Initializer(encoding, values): store values that were already checked,
+ *                                 without copying.
+ * @Initializer(encoding, values, transactionCount, transactionSum,
+ *               lowestBalance): the same, with the totals that were
+ *               calculated before.
+ * @Initializer(bits, valueCount, transactionCount, transactionSum,
+ *               lowestBalance): keep the bits of a binary group with its
+ *               totals.
+ * @Initializer(encoding, buffer, from, to): store part of a buffer that was
+ *                                           already checked by
+ *                                           TransactionGroupParser.
+ * @Initializer(encoding, buffer, from, to, compact): the same, and pack a large
+ *                                                    integer group if compact
+ *                                                    is true.
+ * @method validate(groupEncoding, result): check a groupEncoding without
+ *         throwing, record the broken rule in result.
+ * @method tryCreate(groupEncoding, result): create a group without throwing,
+ *         return null if the groupEncoding is not good.
+ * @method validateAll(groupEncodings, results): check a batch of
+ *         groupEncodings, return the number of good ones.
  * @method getTransactionCount(): calculate the number of transactions in this
  *         transaction group.
  * @method getTransactionAmount(index): calculate the amount of No.index
  *         transaction.
+ * @method getTransactionSum(): return the sum of all transactions in this
+ *         transaction group.
+ * @method getLowestBalance(): return the lowest balance reached in this
+ *         transaction group, relative to the balance before it.
+ * @method getNumberOfOverdrafts(startingBalance): calculate the number of
+ *         overdrafts in this transaction group.
+ * @method getRangeSum(from, to): calculate the sum of the transactions in a
+ *         range.
+ * @method getNumberOfOverdrafts(startingBalance, from, to): calculate the
+ *         number of overdrafts in a range.
+ * @method iterator(): return a cursor over the amount of every transaction in
+ *         order.
+ * @method iterator(from): return a cursor that starts at transaction No.from.
+ * @method stream(): return an IntStream of the amount of every transaction in
+ *         order.
+ * @method forEach(action): give the amount of every transaction in order to
+ *         action.
  */
 public class TransactionGroup {
 
@@ -20,8 +73,47 @@ public class TransactionGroup {
 		BINARY_AMOUNT, INTEGER_AMOUNT, QUICK_WITHDRAW
 	};
 
+	// By encoding number, values() would copy the array for every group
+	private static final EncodingType[] ENCODING_TYPES = EncodingType.values();
+
+	// The messages of the DataFormatException thrown for each bad groupEncoding,
+	// TransactionGroupParser throws the same messages
+	static final String EMPTY_MESSAGE = "transaction group encoding cannot be null or empty";
+	static final String ENCODING_MESSAGE = "the first element within a transaction group must be 0, 1, or 2";
+	static final String BINARY_MESSAGE = "binary amount transaction groups may only contain 0s and 1s";
+	static final String INTEGER_MESSAGE = "integer amount transaction groups may not contain 0s";
+	static final String QUICK_SIZE_MESSAGE = "quick withdraw transaction groups must contain 5 elements";
+	static final String QUICK_NEGATIVE_MESSAGE = "quick withdraw transaction groups may not contain negative numbers";
+
+	// The amount of one withdraw in each of the 4 quick withdraw buckets
+	private static final int[] QW_AMOUNTS = new int[] { -20, -40, -80, -100 };
+	// Compact integer groups with at least this many values are packed when it
+	// saves memory, smaller ones are not worth the slower lookup
+	static final int COMPACT_MIN_VALUES = 256;
+	// The packed position of every 2^CHECKPOINT_SHIFT-th value is kept
+	private static final int CHECKPOINT_SHIFT = 6;
+
 	private EncodingType type;
+	// For integer and quick type: the values after the encoding number, null
+	// when an integer group is packed
 	private int[] values;
+	// For packed integer type only: every value as a zigzag varint, and the index
+	// in packed of value No.i * 2^CHECKPOINT_SHIFT
+	private byte[] packed;
+	private int[] checkpoints;
+	private int valueCount;
+	private int transactionCount;
+	private int transactionSum;
+	private int lowestBalance;
+	// For binary type only: value No.i is bit i % 64 of bits[i / 64]. A run of
+	// successive same numbers starts at value 0 and at every value that differs
+	// from the one before it, runRanks[w] is the number of runs that start before
+	// bits[w].
+	private long[] bits;
+	private int[] runRanks;
+	// For quick type only: the transaction index right after the last withdraw of
+	// each bucket. For example, quick type: 2 0 1 3 has bucketEnds 2 2 3 6.
+	private int[] bucketEnds;
 
 	/**
 	 * This initializer will load a integers list(groupEncoding). This list contains
@@ -35,78 +127,346 @@ public class TransactionGroup {
 	 * value is not 4, we should throw a DataFormatException. 6. For quick type, if
 	 * any value is less than 0, we should throw a DataFormatException. Note that
 	 * these are unchecked exceptions, we should add throw declaration at the
-	 * beginning.
+	 * beginning. The rules are checked by validate, which does not throw.
 	 */
 	public TransactionGroup(int[] groupEncoding) throws DataFormatException {
+		ValidationResult result = new ValidationResult();
+		if (!validate(groupEncoding, result))
+			throw new DataFormatException(result.getMessage());
+		this.setValues(groupEncoding[0], groupEncoding, 1, groupEncoding.length, false);
+	}
 
+	/**
+	 * This method check a groupEncoding with the same rules, in the same sequence,
+	 * as the initializer, but instead of throwing a DataFormatException it records
+	 * the first broken rule and the index of the element that broke it in result.
+	 * 
+	 * @return true if the groupEncoding is good
+	 */
+	public static boolean validate(int[] groupEncoding, ValidationResult result) {
 		// Exception: Null or empty groupEncoding
 		if (groupEncoding == null || groupEncoding.length == 0)
-			throw new DataFormatException("transaction group encoding cannot be null or empty");
+			return result.reject(RejectionReason.EMPTY, 0);
 		// Exception: Encoding number is not 0, 1 or 2
 		if (groupEncoding[0] != 0 && groupEncoding[0] != 1 && groupEncoding[0] != 2)
-			throw new DataFormatException("the first element within a transaction group must be 0, 1, or 2");
+			return result.reject(RejectionReason.ENCODING, 0);
 
-		this.type = EncodingType.values()[groupEncoding[0]];
 		// Note that values does not contain encoding number in groupEncoding, thus size
 		// is length - 1.
-		this.values = new int[groupEncoding.length - 1];
-		for (int i = 0; i < values.length; i++) {
+		for (int i = 0; i < groupEncoding.length - 1; i++) {
 			// Exception: In binary type, a value is not 0 or 1
 			if (groupEncoding[0] == 0 && groupEncoding[i + 1] != 0 && groupEncoding[i + 1] != 1)
-				throw new DataFormatException("binary amount transaction groups may only contain 0s and 1s");
+				return result.reject(RejectionReason.BINARY, i + 1);
 			// Exception: In integer type, a value is 0
 			if (groupEncoding[0] == 1 && groupEncoding[i + 1] == 0)
-				throw new DataFormatException("integer amount transaction groups may not contain 0s");
+				return result.reject(RejectionReason.INTEGER, i + 1);
 			// Exception: In quick type, the size of values is not 4(or size of
-			// groupEncoding is no 5)
+			// groupEncoding is no 5), the position is where the group should end
 			if (groupEncoding[0] == 2 && groupEncoding.length != 5)
-				throw new DataFormatException("quick withdraw transaction groups must contain 5 elements");
+				return result.reject(RejectionReason.QUICK_SIZE, Math.min(groupEncoding.length, 5));
 			// Exception: In quick type, a value is less than 0
 			if (groupEncoding[0] == 2 && groupEncoding[i + 1] < 0)
-				throw new DataFormatException("quick withdraw transaction groups may not contain negative numbers");
-
-			this.values[i] = groupEncoding[i + 1];
+				return result.reject(RejectionReason.QUICK_NEGATIVE, i + 1);
 		}
+		return result.accept(null);
 	}
 
 	/**
-	 * This method calculate the number of transactions in this transaction group.
-	 * For binary type, successive same number will be combined together and
-	 * regarded as one transaction. For example, binary type: 0 0 0 1 1 1 has 2
-	 * transactions. For integer type, number of transactions is the same as size of
-	 * values. For quick type, number of transactions is adding each 4 types of
-	 * quick withdraw number. For example, quick type: 2 2 2 2 has 8 transactions.
+	 * This method create a TransactionGroup like the initializer does, but
+	 * instead of throwing a DataFormatException it records the first broken rule
+	 * in result.
 	 * 
-	 * @return transactionCount: the number of transactions in this transaction
-	 *         group.
+	 * @return the new TransactionGroup, or null if the groupEncoding is not good
 	 */
+	public static TransactionGroup tryCreate(int[] groupEncoding, ValidationResult result) {
+		if (!validate(groupEncoding, result))
+			return null;
+		TransactionGroup t = new TransactionGroup(groupEncoding[0], groupEncoding, 1, groupEncoding.length);
+		result.accept(t);
+		return t;
+	}
 
-	public int getTransactionCount() {
-		int transactionCount = 0;
+	/**
+	 * This method check a batch of groupEncodings in one call. The result of
+	 * groupEncodings[i] is recorded in results[i], a missing result is created,
+	 * so the same array of results can be passed again for the next batch.
+	 * 
+	 * @return the number of good groupEncodings
+	 */
+	public static int validateAll(int[][] groupEncodings, ValidationResult[] results) {
+		// Exception: there must be a result for every groupEncoding
+		if (results.length < groupEncodings.length)
+			throw new IllegalArgumentException(
+					"validateAll needs " + groupEncodings.length + " results, got " + results.length);
+		int valid = 0;
+		for (int i = 0; i < groupEncodings.length; i++) {
+			if (results[i] == null)
+				results[i] = new ValidationResult();
+			if (validate(groupEncodings[i], results[i]))
+				valid++;
+		}
+		return valid;
+	}
+
+	/**
+	 * This initializer will store the values of a groupEncoding that was already
+	 * checked, like AccountSnapshot does. For integer and quick type the values
+	 * array is kept as it is, so the caller must not change it afterwards.
+	 */
+	TransactionGroup(int encoding, int[] values) {
+		this.setValues(encoding, values, 0, values.length, true);
+	}
+
+	/**
+	 * This initializer will store the values of a groupEncoding that was already
+	 * checked, together with its transaction count, sum and lowest balance, like
+	 * AccountSnapshot does when it loads them. Only the run index of a binary
+	 * group and the bucket offsets of a quick group are built, the integer values
+	 * are not walked at all.
+	 */
+	TransactionGroup(int encoding, int[] values, int transactionCount, int transactionSum, int lowestBalance) {
+		this.storeValues(encoding, values, 0, values.length, true);
+		if (this.type == EncodingType.BINARY_AMOUNT)
+			this.buildRunIndex();
+		else if (this.type == EncodingType.QUICK_WITHDRAW)
+			// Only 4 buckets, so the totals are not worth keeping
+			this.buildIndex();
+		this.transactionCount = transactionCount;
+		this.transactionSum = transactionSum;
+		this.lowestBalance = lowestBalance;
+	}
+
+	/**
+	 * This initializer will keep the bits of a binary group that was already
+	 * checked, with its transaction count, sum and lowest balance, like
+	 * AccountSnapshot does when it loads them. Value No.i is bit i % 64 of bits[i
+	 * / 64], and only the run index is built.
+	 */
+	TransactionGroup(long[] bits, int valueCount, int transactionCount, int transactionSum, int lowestBalance) {
+		this.type = EncodingType.BINARY_AMOUNT;
+		this.bits = bits;
+		this.valueCount = valueCount;
+		this.buildRunIndex();
+		this.transactionCount = transactionCount;
+		this.transactionSum = transactionSum;
+		this.lowestBalance = lowestBalance;
+	}
+
+	/**
+	 * This initializer will copy the values from index from to index to of a
+	 * buffer that was already checked, like TransactionGroupParser does. The copy
+	 * is the only array of values that is allocated.
+	 */
+	TransactionGroup(int encoding, int[] buffer, int from, int to) {
+		this(encoding, buffer, from, to, false);
+	}
+
+	/**
+	 * This initializer will copy part of a buffer like the one above. If compact is
+	 * true, an integer group of at least COMPACT_MIN_VALUES values is packed into
+	 * varints when that takes less memory.
+	 */
+	TransactionGroup(int encoding, int[] buffer, int from, int to, boolean compact) {
+		this.setValues(encoding, buffer, from, to, false);
+		if (compact && this.type == EncodingType.INTEGER_AMOUNT && this.valueCount >= COMPACT_MIN_VALUES)
+			this.pack();
+	}
+
+	/**
+	 * This method store the values from index from to index to of source, then
+	 * build the index. Binary values are packed into bits, the others are kept in
+	 * values, which is source itself when keep is true and covers all of it.
+	 */
+	private void setValues(int encoding, int[] source, int from, int to, boolean keep) {
+		this.storeValues(encoding, source, from, to, keep);
+		this.buildIndex();
+	}
+
+	/**
+	 * This method store the values from index from to index to of source like
+	 * setValues does, without building the index.
+	 */
+	private void storeValues(int encoding, int[] source, int from, int to, boolean keep) {
+		this.type = ENCODING_TYPES[encoding];
+		this.valueCount = to - from;
+		if (this.type == EncodingType.BINARY_AMOUNT) {
+			// Every value is 0 or 1, so it is shifted in without a branch
+			this.bits = new long[(this.valueCount + 63) >>> 6];
+			for (int i = 0; i < this.valueCount; i++)
+				this.bits[i >>> 6] |= (long) source[from + i] << i;
+		} else if (keep && from == 0 && to == source.length)
+			this.values = source;
+		else
+			this.values = Arrays.copyOfRange(source, from, to);
+	}
+
+	/**
+	 * This method pack the values of an integer group into zigzag varints, where
+	 * small deposits and withdrawals take 1 byte instead of 4. Every 64th value
+	 * gets a checkpoint, so a lookup decodes at most 64 varints. The values are
+	 * only packed when that, with the checkpoints, is smaller than the int array.
+	 */
+	private void pack() {
+		int size = 0;
+		for (int i = 0; i < this.values.length; i++)
+			size += Varints.length(Varints.zigzag(this.values[i]));
+		int checkpointCount = ((this.values.length - 1) >>> CHECKPOINT_SHIFT) + 1;
+		if (size + 4L * checkpointCount >= 4L * this.values.length)
+			return;
+		this.packed = new byte[size];
+		this.checkpoints = new int[checkpointCount];
+		int position = 0;
+		for (int i = 0; i < this.values.length; i++) {
+			if ((i & ((1 << CHECKPOINT_SHIFT) - 1)) == 0)
+				this.checkpoints[i >>> CHECKPOINT_SHIFT] = position;
+			position = Varints.put(this.packed, position, Varints.zigzag(this.values[i]));
+		}
+		this.values = null;
+	}
+
+	/**
+	 * This method return the packed integer value No.valueIndex. The varints from
+	 * its checkpoint up to it are skipped without decoding them.
+	 */
+	private int packedValue(int valueIndex) {
+		int position = Varints.skip(this.packed, this.checkpoints[valueIndex >>> CHECKPOINT_SHIFT],
+				valueIndex & ((1 << CHECKPOINT_SHIFT) - 1));
+		return this.decode(position);
+	}
+
+	/**
+	 * This method decode the zigzag varint that starts at index position of
+	 * packed.
+	 */
+	private int decode(int position) {
+		return Varints.unzigzag(Varints.get(this.packed, position));
+	}
+
+	/**
+	 * This method build everything that is calculated once in the initializer: the
+	 * transaction count, sum and lowest balance, and the run index or the bucket
+	 * offsets.
+	 */
+	private void buildIndex() {
 		switch (this.type) {
-		// For binary type, successive same number will be combined together and
-		// regarded as one transaction. For example, binary type: 0 0 0 1 1 1 has 2
-		// transactions.
 		case BINARY_AMOUNT:
-			int lastAmount = -1;
-			for (int i = 0; i < this.values.length; i++) {
-				if (this.values[i] != lastAmount) {
-					transactionCount++;
-					lastAmount = this.values[i];
-				}
-			}
+			this.buildRunIndex();
+			this.transactionCount = this.runRanks[this.bits.length];
+			this.forEach(this::addToSums);
 			break;
-		// For integer type, number of transactions is the same as size of values.
 		case INTEGER_AMOUNT:
-			transactionCount = values.length;
+			this.transactionCount = this.values.length;
+			for (int i = 0; i < this.values.length; i++)
+				this.addToSums(this.values[i]);
 			break;
-		// For quick type, number of transactions is adding each 4 types of quick
-		// withdraw number. For example, quick type: 2 2 2 2 has 8 transactions.
 		case QUICK_WITHDRAW:
-			for (int i = 0; i < this.values.length; i++)
-				transactionCount += this.values[i];
+			this.bucketEnds = new int[this.values.length];
+			for (int i = 0; i < this.values.length; i++) {
+				this.bucketEnds[i] = (i == 0 ? 0 : this.bucketEnds[i - 1]) + this.values[i];
+				this.transactionSum += this.values[i] * QW_AMOUNTS[i];
+			}
+			this.transactionCount = this.values.length == 0 ? 0 : this.bucketEnds[this.values.length - 1];
+			// Every quick withdraw is negative, so the balance is lowest at the end
+			this.lowestBalance = this.transactionSum;
 		}
-		return transactionCount;
+	}
+
+	/**
+	 * This method update transactionSum and lowestBalance with the amount of the
+	 * next transaction, they are built by calling it for every transaction in
+	 * order.
+	 */
+	private void addToSums(int amount) {
+		this.transactionSum += amount;
+		this.lowestBalance = Math.min(this.lowestBalance, this.transactionSum);
+	}
+
+	/**
+	 * This method build the run index of a binary type transaction group. The
+	 * runs that start in each word are counted with Long.bitCount, and runRanks
+	 * keeps the number of runs before each word. For example, binary type: 1 0 0 1
+	 * 1 1 has runs starting at values 0 1 3.
+	 */
+	private void buildRunIndex() {
+		this.runRanks = new int[this.bits.length + 1];
+		for (int w = 0; w < this.bits.length; w++)
+			this.runRanks[w + 1] = this.runRanks[w] + Long.bitCount(this.runStarts(w));
+	}
+
+	/**
+	 * This method return the bits of word w that are the start of a run: the bits
+	 * that differ from the bit before them, and value 0. The bits after the last
+	 * value are never a start.
+	 */
+	private long runStarts(int w) {
+		long word = this.bits[w];
+		// The bit before value 0 is taken as the opposite of value 0
+		long before = w == 0 ? ~word & 1 : this.bits[w - 1] >>> 63;
+		long starts = word ^ ((word << 1) | before);
+		int left = this.valueCount - (w << 6);
+		return left >= 64 ? starts : starts & ((1L << left) - 1);
+	}
+
+	/**
+	 * This method return the index of the word that holds the start of run No.run,
+	 * found by binary search over runRanks: it is the last word with at most run
+	 * runs before it.
+	 */
+	private int findRunWord(int run) {
+		int low = 0;
+		int high = this.bits.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.runRanks[middle] <= run)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * This method return the starts of word, found by findRunWord(run), with the
+	 * starts before run No.run cleared, so its lowest bit is where run No.run
+	 * starts and the next bits are where the runs after it start.
+	 */
+	private long runStartsFrom(int word, int run) {
+		long starts = this.runStarts(word);
+		for (int i = this.runRanks[word]; i < run; i++)
+			starts &= starts - 1;
+		return starts;
+	}
+
+	/**
+	 * This method return the index of the value where run No.run starts.
+	 */
+	private int runStart(int run) {
+		int word = this.findRunWord(run);
+		return (word << 6) + Long.numberOfTrailingZeros(this.runStartsFrom(word, run));
+	}
+
+	/**
+	 * This method return the amount of the run of binary values from start to end:
+	 * its length, negative when the values are 0.
+	 */
+	private int runAmount(int start, int end) {
+		return (this.bits[start >>> 6] >>> start & 1) != 0 ? end - start : start - end;
+	}
+
+	/**
+	 * This method return the number of transactions in this transaction group,
+	 * which is counted once in the initializer. For binary type, successive same
+	 * number will be combined together and regarded as one transaction. For
+	 * example, binary type: 0 0 0 1 1 1 has 2 transactions. For integer type,
+	 * number of transactions is the same as size of values. For quick type, number
+	 * of transactions is adding each 4 types of quick withdraw number. For example,
+	 * quick type: 2 2 2 2 has 8 transactions.
+	 * 
+	 * @return transactionCount: the number of transactions in this transaction
+	 *         group.
+	 */
+	public int getTransactionCount() {
+		return this.transactionCount;
 	}
 
 	/**
@@ -121,50 +481,401 @@ public class TransactionGroup {
 	public int getTransactionAmount(int transactionIndex) throws IndexOutOfBoundsException {
 		// Exception: trasactionIndex is more or equal to total transaction count,
 		// because index starts from 0, it should at most count - 1
-		if (transactionIndex >= this.getTransactionCount())
+		if (transactionIndex >= this.transactionCount)
 			throw new IndexOutOfBoundsException("ArrayIndexOutOfBoundsException: " + transactionIndex
-					+ ". Exceed the limit: " + (this.getTransactionCount()));
+					+ ". Exceed the limit: " + (this.transactionCount));
 
-		int transactionCount = 0;
 		switch (this.type) {
 		// For binary type, successive same number will be combined together and
 		// regarded as one transaction. For example, binary type: 1 0 0 1 1 1. Index 2
-		// amount = 3
+		// amount = 3, the run goes from its start to the start of the next run
 		case BINARY_AMOUNT:
-			int lastAmount = -1;
-			int amountCount = 0;
-			for (int i = 0; i <= this.values.length; i++) {
-				// if there is a shifting point break the successive sequence, count++
-				if (i == this.values.length || this.values[i] != lastAmount) {
-					// if we find the index we want, we begin to calculate the amount
-					if (transactionCount - 1 == transactionIndex) {
-						if (lastAmount == 0)
-							return -1 * amountCount;
-						else
-							return +1 * amountCount;
+			int word = this.findRunWord(transactionIndex);
+			long starts = this.runStartsFrom(word, transactionIndex);
+			int start = (word << 6) + Long.numberOfTrailingZeros(starts);
+			starts &= starts - 1;
+			// The next run mostly starts in the same word
+			int end = starts != 0 ? (word << 6) + Long.numberOfTrailingZeros(starts)
+					: transactionIndex + 1 == this.transactionCount ? this.valueCount
+							: this.runStart(transactionIndex + 1);
+			return this.runAmount(start, end);
+		// For integer type, just simply return the No.index value
+		case INTEGER_AMOUNT:
+			return this.values != null ? this.values[transactionIndex] : this.packedValue(transactionIndex);
+		// For quick type, the index we want belongs to the first bucket that ends
+		// after it
+		case QUICK_WITHDRAW:
+			for (int i = 0; i < this.bucketEnds.length; i++)
+				if (transactionIndex < this.bucketEnds[i])
+					return QW_AMOUNTS[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * This method return the sum of all transactions in this transaction group,
+	 * which is calculated once in the initializer.
+	 * 
+	 * @return the sum of all transactions in this transaction group.
+	 */
+	public int getTransactionSum() {
+		return this.transactionSum;
+	}
+
+	/**
+	 * This method return the lowest balance reached after any transaction in this
+	 * transaction group, relative to the balance before its first transaction. It
+	 * is never above 0, because the balance before the group counts too. For
+	 * example, integer type: 1 5 -8 2 has lowest balance -3.
+	 * 
+	 * @return the lowest balance relative to the start of this transaction group.
+	 */
+	public int getLowestBalance() {
+		return this.lowestBalance;
+	}
+
+	/**
+	 * This method calculate the number of overdrafts in this transaction group,
+	 * given the balance before its first transaction. A transaction is an overdraft
+	 * when its amount is negative and the balance after it is below 0. Binary and
+	 * integer types visit every transaction in order once, a binary run counts as
+	 * one transaction. Quick type calculates each bucket at once, because all the
+	 * withdraws in a bucket have the same amount.
+	 * 
+	 * @return the number of overdrafts in this transaction group.
+	 */
+	public int getNumberOfOverdrafts(int startingBalance) {
+		int balance = startingBalance;
+		int overdraftCount = 0;
+		switch (this.type) {
+		// For binary type, each run is one transaction
+		case BINARY_AMOUNT:
+			for (PrimitiveIterator.OfInt runs = this.iterator(); runs.hasNext();) {
+				int amount = runs.nextInt();
+				balance += amount;
+				if (balance < 0 && amount < 0)
+					overdraftCount++;
+			}
+			break;
+		case INTEGER_AMOUNT:
+			if (this.values == null) {
+				// The varints are decoded a checkpoint at a time
+				int[] block = new int[1 << CHECKPOINT_SHIFT];
+				for (int from = 0, position = 0; from < this.valueCount; from += block.length) {
+					int count = Math.min(block.length, this.valueCount - from);
+					position = Varints.getZigzags(this.packed, position, block, 0, count);
+					for (int i = 0; i < count; i++) {
+						balance += block[i];
+						if (balance < 0 && block[i] < 0)
+							overdraftCount++;
 					}
-					transactionCount++;
-					lastAmount = this.values[i];
-					amountCount = 1;
-				} else
-					amountCount++;
-				lastAmount = this.values[i];
+				}
+				break;
+			}
+			for (int i = 0; i < this.values.length; i++) {
+				balance += this.values[i];
+				if (balance < 0 && this.values[i] < 0)
+					overdraftCount++;
 			}
 			break;
-		// For integer type, just simply return the No.index value
+		// For quick type, every withdraw is negative, so the No.j withdraw of a bucket
+		// is an overdraft when balance - j * amount < 0. That is every withdraw after
+		// the first balance / amount ones, or all of them if the balance is negative
+		case QUICK_WITHDRAW:
+			for (int i = 0; i < this.values.length; i++) {
+				int withdraws = this.values[i];
+				int covered = balance < 0 ? 0 : balance / -QW_AMOUNTS[i];
+				overdraftCount += Math.max(0, withdraws - covered);
+				balance += withdraws * QW_AMOUNTS[i];
+			}
+		}
+		return overdraftCount;
+	}
+
+	/**
+	 * This method calculate the sum of the transactions from index from to index
+	 * to - 1. Binary and integer types visit those transactions in order, quick
+	 * type calculates the part of each bucket that is in the range at once.
+	 * 
+	 * @return the sum of the transactions in the range
+	 * @throws IndexOutOfBoundsException if the range is not inside this group
+	 */
+	public int getRangeSum(int from, int to) {
+		this.checkRange(from, to);
+		int sum = 0;
+		if (this.type == EncodingType.QUICK_WITHDRAW) {
+			for (int i = 0; i < this.bucketEnds.length; i++)
+				sum += this.bucketOverlap(i, from, to) * QW_AMOUNTS[i];
+			return sum;
+		}
+		PrimitiveIterator.OfInt amounts = this.iterator(from);
+		for (int i = from; i < to; i++)
+			sum += amounts.nextInt();
+		return sum;
+	}
+
+	/**
+	 * This method calculate the number of overdrafts among the transactions from
+	 * index from to index to - 1, given the balance before transaction No.from.
+	 * Quick type calculates each bucket at once, like
+	 * getNumberOfOverdrafts(startingBalance) does.
+	 * 
+	 * @return the number of overdrafts in the range
+	 * @throws IndexOutOfBoundsException if the range is not inside this group
+	 */
+	public int getNumberOfOverdrafts(int startingBalance, int from, int to) {
+		this.checkRange(from, to);
+		int balance = startingBalance;
+		int overdraftCount = 0;
+		if (this.type == EncodingType.QUICK_WITHDRAW) {
+			for (int i = 0; i < this.bucketEnds.length; i++) {
+				int withdraws = this.bucketOverlap(i, from, to);
+				int covered = balance < 0 ? 0 : balance / -QW_AMOUNTS[i];
+				overdraftCount += Math.max(0, withdraws - covered);
+				balance += withdraws * QW_AMOUNTS[i];
+			}
+			return overdraftCount;
+		}
+		PrimitiveIterator.OfInt amounts = this.iterator(from);
+		for (int i = from; i < to; i++) {
+			int amount = amounts.nextInt();
+			balance += amount;
+			if (balance < 0 && amount < 0)
+				overdraftCount++;
+		}
+		return overdraftCount;
+	}
+
+	/**
+	 * This method return the number of withdraws of quick bucket No.bucket that
+	 * are inside the range from from to to - 1.
+	 */
+	private int bucketOverlap(int bucket, int from, int to) {
+		int start = bucket == 0 ? 0 : this.bucketEnds[bucket - 1];
+		return Math.max(0, Math.min(to, this.bucketEnds[bucket]) - Math.max(from, start));
+	}
+
+	private void checkRange(int from, int to) {
+		// Exception: the range is not inside this group
+		if (from < 0 || to > this.transactionCount || from > to)
+			throw new IndexOutOfBoundsException(
+					"ArrayIndexOutOfBoundsException: " + from + " to " + to + ". Exceed the limit: "
+							+ this.transactionCount);
+	}
+
+	/**
+	 * This method return the encoding number of this group: 0, 1 or 2.
+	 */
+	int getEncoding() {
+		return this.type.ordinal();
+	}
+
+	/**
+	 * This method return true if this is an integer group packed into varints.
+	 */
+	boolean isPacked() {
+		return this.packed != null;
+	}
+
+	/**
+	 * This method return the number of values of this group, which does not count
+	 * the encoding number.
+	 */
+	int getValueCount() {
+		return this.valueCount;
+	}
+
+	/**
+	 * This method return the sum of the absolute amounts of all transactions in
+	 * this group, without visiting them one by one. A binary run has the length
+	 * of the run as its amount, so the runs add up to the number of values. A
+	 * quick bucket adds its number of withdraws times its amount. An integer
+	 * group adds its values, which are decoded in place when they are packed.
+	 */
+	long getVolume() {
+		long volume = 0;
+		switch (this.type) {
+		case BINARY_AMOUNT:
+			volume = this.valueCount;
+			break;
+		case INTEGER_AMOUNT:
+			if (this.values == null) {
+				for (PrimitiveIterator.OfInt amounts = this.iterator(); amounts.hasNext();)
+					volume += Math.abs((long) amounts.nextInt());
+				break;
+			}
+			for (int i = 0; i < this.values.length; i++)
+				volume += Math.abs((long) this.values[i]);
+			break;
+		case QUICK_WITHDRAW:
+			for (int i = 0; i < this.values.length; i++)
+				volume -= (long) this.values[i] * QW_AMOUNTS[i];
+		}
+		return volume;
+	}
+
+	/**
+	 * This method give every value of this group in order to action, exactly as
+	 * they appeared in the groupEncoding after the encoding number.
+	 */
+	void forEachValue(IntConsumer action) {
+		if (this.type == EncodingType.INTEGER_AMOUNT) {
+			this.forEach(action);
+			return;
+		}
+		for (int i = 0; i < this.valueCount; i++)
+			action.accept(
+					this.type == EncodingType.BINARY_AMOUNT ? (int) (this.bits[i >>> 6] >>> i & 1) : this.values[i]);
+	}
+
+	/**
+	 * This method return a cursor over the amount of every transaction in order.
+	 * The cursor remembers where it is, so every step costs O(1) and nothing is
+	 * allocated after the cursor itself.
+	 * 
+	 * @return a cursor that starts before the first transaction.
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new Cursor(0);
+	}
+
+	/**
+	 * This method return a cursor over the amount of every transaction from index
+	 * from in order. Binary and packed integer types start from the index instead
+	 * of stepping over the transactions before it.
+	 * 
+	 * @return a cursor that starts before transaction No.from.
+	 * @throws IndexOutOfBoundsException if from is not from 0 to transactionCount
+	 */
+	public PrimitiveIterator.OfInt iterator(int from) {
+		this.checkRange(from, from);
+		return new Cursor(from);
+	}
+
+	/**
+	 * This method return an IntStream of the amount of every transaction in order.
+	 * 
+	 * @return a sequential IntStream of transactionCount amounts.
+	 */
+	public IntStream stream() {
+		return StreamSupport.intStream(Spliterators.spliterator(this.iterator(), this.transactionCount,
+				Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * This method give the amount of every transaction in order to action.
+	 */
+	public void forEach(IntConsumer action) {
+		switch (this.type) {
+		case BINARY_AMOUNT:
+			for (PrimitiveIterator.OfInt runs = this.iterator(); runs.hasNext();)
+				action.accept(runs.nextInt());
+			break;
 		case INTEGER_AMOUNT:
-			return this.values[transactionIndex];
-		// For quick type, we should split each kind of withdraw, process them one by
-		// one,and find the index we want
+			if (this.values == null) {
+				for (PrimitiveIterator.OfInt amounts = this.iterator(); amounts.hasNext();)
+					action.accept(amounts.nextInt());
+				break;
+			}
+			for (int i = 0; i < this.values.length; i++)
+				action.accept(this.values[i]);
+			break;
 		case QUICK_WITHDRAW:
-			final int[] QW_AMOUNTS = new int[] { -20, -40, -80, -100 };
 			for (int i = 0; i < this.values.length; i++)
 				for (int j = 0; j < this.values[i]; j++)
-					if (transactionCount == transactionIndex)
-						return QW_AMOUNTS[i];
-					else
-						transactionCount++;
+					action.accept(QW_AMOUNTS[i]);
+		}
+	}
+
+	/**
+	 * A Cursor walks over the transactions of this group. For binary type it keeps
+	 * the starts of the runs left in the current word, and finds the next one with
+	 * Long.numberOfTrailingZeros. For packed integer type it decodes the varints
+	 * from one checkpoint to the next at once into block, and keeps the index of
+	 * the next varint after them. For quick type it keeps the bucket of the next
+	 * transaction, so it never has to search for it.
+	 */
+	private class Cursor implements PrimitiveIterator.OfInt {
+
+		private int index;
+		private int position;
+		// For packed integer type only: the values of the current checkpoint, which
+		// are decoded up to index blockEnd
+		private int[] block;
+		private int blockEnd;
+		private int bucket;
+		private int word;
+		private long starts;
+		private int runStart;
+
+		Cursor(int from) {
+			TransactionGroup group = TransactionGroup.this;
+			this.index = from;
+			if (from == group.transactionCount)
+				return;
+			if (group.type == EncodingType.BINARY_AMOUNT) {
+				// The starts before run No.from and its own start are cleared, the start of
+				// the next run is where run No.from ends
+				this.word = group.findRunWord(from);
+				this.starts = group.runStartsFrom(this.word, from);
+				this.runStart = (this.word << 6) + Long.numberOfTrailingZeros(this.starts);
+				this.starts &= this.starts - 1;
+			} else if (group.packed != null) {
+				this.block = new int[1 << CHECKPOINT_SHIFT];
+				this.position = group.checkpoints[from >>> CHECKPOINT_SHIFT];
+				this.blockEnd = from & -(1 << CHECKPOINT_SHIFT);
+				if (this.blockEnd < from)
+					this.decodeBlock();
+			}
+		}
+
+		/**
+		 * This method decode the values from index blockEnd to the next checkpoint
+		 * into block.
+		 */
+		private void decodeBlock() {
+			int count = Math.min(this.block.length, TransactionGroup.this.valueCount - this.blockEnd);
+			this.position = Varints.getZigzags(TransactionGroup.this.packed, this.position, this.block, 0, count);
+			this.blockEnd += count;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.index < TransactionGroup.this.transactionCount;
+		}
+
+		@Override
+		public int nextInt() {
+			// Exception: there is no transaction left
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			switch (TransactionGroup.this.type) {
+			case BINARY_AMOUNT:
+				long[] bits = TransactionGroup.this.bits;
+				while (this.starts == 0 && this.word + 1 < bits.length)
+					this.starts = TransactionGroup.this.runStarts(++this.word);
+				// The run ends where the next one starts, or at the last value
+				int end = TransactionGroup.this.valueCount;
+				if (this.starts != 0) {
+					end = (this.word << 6) + Long.numberOfTrailingZeros(this.starts);
+					this.starts &= this.starts - 1;
+				}
+				int amount = TransactionGroup.this.runAmount(this.runStart, end);
+				this.runStart = end;
+				this.index++;
+				return amount;
+			case INTEGER_AMOUNT:
+				if (TransactionGroup.this.values != null)
+					return TransactionGroup.this.values[this.index++];
+				if (this.index == this.blockEnd)
+					this.decodeBlock();
+				return this.block[this.index++ & (this.block.length - 1)];
+			default:
+				while (this.index >= TransactionGroup.this.bucketEnds[this.bucket])
+					this.bucket++;
+				this.index++;
+				return QW_AMOUNTS[this.bucket];
+			}
 		}
-		return -1;
 	}
 }
@@ -0,0 +1,269 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A TransactionGroupCache object keeps the TransactionGroups of recently parsed
+ * short commands, so a command that is seen again gets the same group without
+ * being parsed, checked or allocated again. A TransactionGroup never changes
+ * after it is created, and the totals that depend on the balance before it are
+ * kept by each account, so one group can be added to many accounts. Commands
+ * are found by their characters, and only commands of at most maxLength
+ * characters are kept, because repeated commands are the short ones, like the
+ * same quick withdraw buckets or a few binary amounts. A TransactionGroupParser
+ * uses a cache after setCache, and all accounts use one after
+ * Account.setGroupCache.
+ * 
+ * The cache can be shared by many threads. It is split into segments by the
+ * hash of the commands, each with its own lock and capacity, so threads that
+ * look up different commands seldom wait for each other. When a segment is
+ * full, the group it used least recently is dropped, which is close to the
+ * least recently used group of the whole cache. A cache of fewer than 32 groups
+ * is one segment. This class contains 3 private field, 2 initializer and 8
+ * methods, each of them in turn has following functions:
+ * 
+ * @Initializer(capacity): create a cache of capacity groups for commands of at
+ *                         most DEFAULT_MAX_LENGTH characters.
+ * @Initializer(capacity, maxLength): the same, with commands of at most
+ *                                    maxLength characters.
+ * 
+ * @method getMaxLength(): return the length of the longest command kept
+ * @method size(): return the number of groups kept
+ * @method getHits(): return the number of commands found in the cache
+ * @method getMisses(): return the number of short commands not found
+ * @method getEvictions(): return the number of groups dropped
+ * @method getHitRate(): return the hits divided by all lookups
+ * @method clear(): drop every group and reset the counts
+ * @method toString(): return the counts as a String
+ */
+public class TransactionGroupCache {
+
+	// Longer commands are unlikely to repeat, and hashing them costs as much as
+	// parsing
+	public static final int DEFAULT_MAX_LENGTH = 32;
+	// A cache is split into at most MAX_SEGMENTS segments of at least
+	// MIN_SEGMENT_CAPACITY groups, so a small cache is one exact LRU list
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_CAPACITY = 16;
+
+	private final int capacity;
+	private final int maxLength;
+	// Each command belongs to one segment by its hash, and each segment has its
+	// own lock, so threads that look up different commands rarely wait
+	private final Segment[] segments;
+
+	/**
+	 * This initializer will create an empty cache of capacity groups for commands
+	 * of at most DEFAULT_MAX_LENGTH characters.
+	 */
+	public TransactionGroupCache(int capacity) {
+		this(capacity, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * This initializer will create an empty cache of capacity groups for commands
+	 * of at most maxLength characters. The capacity is shared out between the
+	 * segments, which differ by at most one group.
+	 */
+	public TransactionGroupCache(int capacity, int maxLength) {
+		// Exception: the cache must hold at least one group of one character
+		if (capacity < 1 || maxLength < 1)
+			throw new IllegalArgumentException(
+					"capacity and maxLength must be at least 1, got " + capacity + " and " + maxLength);
+		this.capacity = capacity;
+		this.maxLength = maxLength;
+		int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++)
+			this.segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+	}
+
+	public int getMaxLength() {
+		return this.maxLength;
+	}
+
+	/**
+	 * This method return the segment of a hash. The parser hashes like
+	 * String.hashCode, whose low bits are also used by the LinkedHashMap of the
+	 * segment, so the high bits of the hash mixed with a multiplier are used.
+	 */
+	private Segment segment(int hash) {
+		return this.segments[((hash * 0x9E3779B9) >>> 16) & (this.segments.length - 1)];
+	}
+
+	/**
+	 * This method find the group of a command, given as its first length
+	 * characters in chars and their hash, and mark it as the most recently used
+	 * in its segment.
+	 * 
+	 * @return the group, or null if the command is not in the cache
+	 */
+	TransactionGroup get(char[] chars, int length, int hash) {
+		return this.segment(hash).get(chars, length, hash);
+	}
+
+	/**
+	 * This method keep the group of a command, given the same way as get, and drop
+	 * the least recently used group of its segment if the segment is full.
+	 */
+	void put(char[] chars, int length, int hash, TransactionGroup group) {
+		this.segment(hash).put(new Key(Arrays.copyOf(chars, length), length, hash), group);
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : this.segments)
+			size += segment.size();
+		return size;
+	}
+
+	public long getHits() {
+		long hits = 0;
+		for (Segment segment : this.segments)
+			hits += segment.getHits();
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for (Segment segment : this.segments)
+			misses += segment.getMisses();
+		return misses;
+	}
+
+	public long getEvictions() {
+		long evictions = 0;
+		for (Segment segment : this.segments)
+			evictions += segment.getEvictions();
+		return evictions;
+	}
+
+	/**
+	 * This method return the share of lookups that found their group, or 0 before
+	 * the first lookup. Commands longer than maxLength are not looked up, so they
+	 * are not counted.
+	 */
+	public double getHitRate() {
+		long hits = this.getHits();
+		long lookups = hits + this.getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * This method drop every group and set the counts back to 0.
+	 */
+	public void clear() {
+		for (Segment segment : this.segments)
+			segment.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"TransactionGroupCache[size=%d/%d, segments=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f]",
+				this.size(), this.capacity, this.segments.length, this.getHits(), this.getMisses(),
+				this.getEvictions(), this.getHitRate());
+	}
+
+	/**
+	 * A Segment is one LRU list of the cache, with its own lock and counts. When
+	 * it holds capacity groups, the one that was used least recently is dropped.
+	 */
+	private static class Segment {
+
+		private final int capacity;
+		// In the order of use, the least recently used first
+		private final LinkedHashMap<Key, TransactionGroup> groups;
+		// Filled in for every lookup, so finding a group allocates nothing
+		private final Key probe = new Key(null, 0, 0);
+		private long hits;
+		private long misses;
+		private long evictions;
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.groups = new LinkedHashMap<Key, TransactionGroup>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, TransactionGroup> eldest) {
+					if (this.size() <= Segment.this.capacity)
+						return false;
+					Segment.this.evictions++;
+					return true;
+				}
+			};
+		}
+
+		synchronized TransactionGroup get(char[] chars, int length, int hash) {
+			this.probe.chars = chars;
+			this.probe.length = length;
+			this.probe.hash = hash;
+			TransactionGroup group = this.groups.get(this.probe);
+			this.probe.chars = null;
+			if (group == null)
+				this.misses++;
+			else
+				this.hits++;
+			return group;
+		}
+
+		synchronized void put(Key key, TransactionGroup group) {
+			this.groups.put(key, group);
+		}
+
+		synchronized int size() {
+			return this.groups.size();
+		}
+
+		synchronized long getHits() {
+			return this.hits;
+		}
+
+		synchronized long getMisses() {
+			return this.misses;
+		}
+
+		synchronized long getEvictions() {
+			return this.evictions;
+		}
+
+		synchronized void clear() {
+			this.groups.clear();
+			this.hits = 0;
+			this.misses = 0;
+			this.evictions = 0;
+		}
+	}
+
+	/**
+	 * A Key is the characters of a command with their hash, which is calculated
+	 * by the parser while it copies them.
+	 */
+	private static class Key {
+
+		char[] chars;
+		int length;
+		int hash;
+
+		Key(char[] chars, int length, int hash) {
+			this.chars = chars;
+			this.length = length;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return this.hash == key.hash && Arrays.equals(this.chars, 0, this.length, key.chars, 0, key.length);
+		}
+	}
+}
@@ -0,0 +1,376 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * A TransactionGroupParser object turns a command of space separated integers
+ * into a TransactionGroup. The command is read character by character straight
+ * into a reusable int buffer, and every number is checked against the rules of
+ * its encoding type in the same pass. The only allocation for an accepted
+ * command is the values array, or the packed bits, of the new group. The
+ * accepted commands and the error messages are exactly the same as splitting
+ * the command by " " and calling Integer.parseInt on every part. A parser
+ * keeps state between calls, so each thread should use its own parser. Every
+ * parse method has a tryParse method that records the error in a
+ * ValidationResult instead of throwing a DataFormatException, which is much
+ * cheaper when many commands are bad. With a TransactionGroupCache, a short
+ * command that was parsed before gets the same group without being parsed
+ * again. Large integer groups are only packed into varints after
+ * setCompact(true). This class contains 12 private field, 1 initializer and 8
+ * methods, each of them in turn has following functions:
+ * 
+ * @Initializer: create a parser with an empty buffer.
+ * 
+ * @method parse(CharSequence): parse a command stored in a String or any other
+ *         CharSequence
+ * @method parse(char[], offset, length): parse a command stored in part of a
+ *         char array
+ * @method parse(ByteBuffer, offset, length): parse an ASCII command stored in
+ *         part of a byte buffer, without changing its position
+ * @method tryParse(..., result): the same as each parse method, but return
+ *         null and record the error in result instead of throwing
+ * @method setCache(cache): use a TransactionGroupCache, or none if null
+ * @method setCompact(compact): pack large integer groups or not
+ */
+public class TransactionGroupParser {
+
+	// The message of the DataFormatException thrown when a part of the command is
+	// not an integer
+	static final String FORMAT_MESSAGE =
+			"addTransactionGroup requires string commands that contain only space separated integer values";
+
+	// The largest buffer that is kept between calls, larger ones are dropped
+	private static final int MAX_KEPT_BUFFER = 1 << 16;
+
+	// Where the characters of the current command come from, only one is set
+	private CharSequence sequence;
+	private char[] chars;
+	private ByteBuffer bytes;
+	// The first number of the command, followed by the values
+	private int[] buffer;
+	private int count;
+	// The position of the first character after the last parsed number
+	private int position;
+	// Set by parseInt when the characters are not an integer
+	private boolean failed;
+	// The result of the throwing parse methods, which throw its message
+	private final ValidationResult errors = new ValidationResult();
+	// The cache of short commands, null when there is none, and the characters of
+	// the current command with their hash when it is short enough for the cache
+	private TransactionGroupCache cache;
+	private char[] key;
+	private int keyHash;
+	// True when large integer groups are packed
+	private boolean compact;
+
+	/**
+	 * This initializer will create a parser with an empty buffer.
+	 */
+	public TransactionGroupParser() {
+		this.buffer = new int[16];
+	}
+
+	/**
+	 * This method set the TransactionGroupCache used by every parse method from
+	 * now on, or stop using one if cache is null.
+	 */
+	public void setCache(TransactionGroupCache cache) {
+		this.cache = cache;
+		this.key = cache == null ? null : new char[cache.getMaxLength()];
+	}
+
+	TransactionGroupCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * This method set whether the integer groups of at least
+	 * TransactionGroup.COMPACT_MIN_VALUES values created from now on are packed
+	 * into varints when that takes less memory. Packed groups use about a quarter
+	 * of the memory for small amounts, but their lookups and scans are slower, so
+	 * groups are not packed by default.
+	 */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	boolean isCompact() {
+		return this.compact;
+	}
+
+	/**
+	 * This method parse a command stored in a String or any other CharSequence.
+	 * 
+	 * @return the new TransactionGroup
+	 * @throws DataFormatException with the same message as
+	 *                             Account.addTransactionGroup(command)
+	 */
+	public TransactionGroup parse(CharSequence command) throws DataFormatException {
+		return this.orThrow(this.tryParse(command, this.errors));
+	}
+
+	/**
+	 * This method parse a command stored in part of a char array.
+	 * 
+	 * @return the new TransactionGroup
+	 * @throws DataFormatException with the same message as
+	 *                             Account.addTransactionGroup(command)
+	 */
+	public TransactionGroup parse(char[] command, int offset, int length) throws DataFormatException {
+		return this.orThrow(this.tryParse(command, offset, length, this.errors));
+	}
+
+	/**
+	 * This method parse an ASCII command stored in part of a byte buffer. Only the
+	 * absolute get methods are used, so the position of the buffer is not changed.
+	 * 
+	 * @return the new TransactionGroup
+	 * @throws DataFormatException with the same message as
+	 *                             Account.addTransactionGroup(command)
+	 */
+	public TransactionGroup parse(ByteBuffer command, int offset, int length) throws DataFormatException {
+		return this.orThrow(this.tryParse(command, offset, length, this.errors));
+	}
+
+	/**
+	 * This method throw the error recorded by the last tryParse if it did not
+	 * create a group.
+	 */
+	private TransactionGroup orThrow(TransactionGroup t) throws DataFormatException {
+		if (t == null)
+			throw new DataFormatException(this.errors.getMessage());
+		return t;
+	}
+
+	/**
+	 * This method parse a command stored in a String or any other CharSequence
+	 * like parse does, but instead of throwing a DataFormatException it records
+	 * the first broken rule and the index of the character where it was found in
+	 * result.
+	 * 
+	 * @return the new TransactionGroup, or null if the command is not good
+	 */
+	public TransactionGroup tryParse(CharSequence command, ValidationResult result) {
+		this.sequence = command;
+		try {
+			return this.tryParse(0, command.length(), result);
+		} finally {
+			this.sequence = null;
+		}
+	}
+
+	/**
+	 * This method parse a command stored in part of a char array like parse does,
+	 * but records the first broken rule in result instead of throwing. The
+	 * position is counted from offset.
+	 * 
+	 * @return the new TransactionGroup, or null if the command is not good
+	 */
+	public TransactionGroup tryParse(char[] command, int offset, int length, ValidationResult result) {
+		this.chars = command;
+		try {
+			return this.tryParse(offset, length, result);
+		} finally {
+			this.chars = null;
+		}
+	}
+
+	/**
+	 * This method parse an ASCII command stored in part of a byte buffer like
+	 * parse does, but records the first broken rule in result instead of
+	 * throwing. The position is counted from offset.
+	 * 
+	 * @return the new TransactionGroup, or null if the command is not good
+	 */
+	public TransactionGroup tryParse(ByteBuffer command, int offset, int length, ValidationResult result) {
+		this.bytes = command;
+		try {
+			return this.tryParse(offset, length, result);
+		} finally {
+			this.bytes = null;
+		}
+	}
+
+	/**
+	 * This method parse the characters from offset to offset + length of the
+	 * current source. There are several errors that may occur so we have to handle
+	 * them in sequence, just like splitting the command and then creating a
+	 * TransactionGroup. 1. Any part is not an integer, we should reject it, even if
+	 * an error of the encoding type appears before it. 2. There is no number at
+	 * all. 3. The encoding number is not 0, 1 or 2. 4. The first value that breaks
+	 * the rule of the encoding type.
+	 * 
+	 * @return the new TransactionGroup, or null after the error is recorded in
+	 *         result
+	 */
+	private TransactionGroup tryParse(int offset, int length, ValidationResult result) {
+		TransactionGroupCache cache = this.cache;
+		if (cache != null && length <= this.key.length) {
+			// A good command that was parsed before has its group in the cache
+			TransactionGroup t = this.find(cache, offset, length);
+			if (t != null) {
+				result.accept(t);
+				return t;
+			}
+		} else {
+			cache = null;
+		}
+		int end = offset + length;
+		// Exception: an empty command is one empty part, which is not an integer
+		if (length == 0) {
+			result.reject(RejectionReason.FORMAT, 0);
+			return null;
+		}
+		// Spaces at the end are ignored, like split(" ") drops empty parts at the end
+		while (end > offset && this.charAt(end - 1) == ' ')
+			end--;
+		this.count = 0;
+		this.position = offset;
+		RejectionReason error = null;
+		int errorPosition = 0;
+		int negativePosition = -1;
+		int sizePosition = end;
+		while (this.position < end) {
+			// Exception: each number must end right before a single space or the end
+			if (this.count > 0 && this.charAt(this.position++) != ' ') {
+				result.reject(RejectionReason.FORMAT, this.position - 1 - offset);
+				return null;
+			}
+			int valueStart = this.position;
+			int value = this.parseInt(end);
+			// Exception: the part is not an integer
+			if (this.failed) {
+				result.reject(RejectionReason.FORMAT, this.position - offset);
+				return null;
+			}
+			if (this.count == this.buffer.length)
+				this.buffer = Arrays.copyOf(this.buffer, this.count * 2);
+			this.buffer[this.count++] = value;
+			// Only the first error of the encoding type is kept, but we still have to
+			// read the rest of the command to find parts that are not integers
+			if (error != null || this.count == 1)
+				continue;
+			switch (this.buffer[0]) {
+			case 0:
+				if (value != 0 && value != 1)
+					error = RejectionReason.BINARY;
+				break;
+			case 1:
+				if (value == 0)
+					error = RejectionReason.INTEGER;
+				break;
+			case 2:
+				// The size of a quick type group is only known at the end
+				if (value < 0 && negativePosition < 0)
+					negativePosition = valueStart;
+				if (this.count == 6)
+					sizePosition = valueStart;
+			}
+			if (error != null)
+				errorPosition = valueStart;
+		}
+		// Exception: the command only contains spaces
+		if (this.count == 0) {
+			result.reject(RejectionReason.EMPTY, 0);
+			return null;
+		}
+		// Exception: the encoding number is checked after the whole command is read
+		if (this.buffer[0] < 0 || this.buffer[0] > 2) {
+			result.reject(RejectionReason.ENCODING, 0);
+			return null;
+		}
+		// Exception: in quick type, the size is checked before any negative value
+		if (this.buffer[0] == 2 && this.count > 1 && this.count != 5) {
+			error = RejectionReason.QUICK_SIZE;
+			errorPosition = sizePosition;
+		} else if (this.buffer[0] == 2 && negativePosition >= 0) {
+			error = RejectionReason.QUICK_NEGATIVE;
+			errorPosition = negativePosition;
+		}
+		if (error != null) {
+			result.reject(error, errorPosition - offset);
+			return null;
+		}
+
+		TransactionGroup t = new TransactionGroup(this.buffer[0], this.buffer, 1, this.count, this.compact);
+		if (this.buffer.length > MAX_KEPT_BUFFER)
+			this.buffer = new int[16];
+		if (cache != null)
+			cache.put(this.key, length, this.keyHash, t);
+		result.accept(t);
+		return t;
+	}
+
+	/**
+	 * This method copy the characters from offset to offset + length of the
+	 * current source to key, calculate their hash and look them up in the cache.
+	 * 
+	 * @return the group of the command, or null if it is not in the cache
+	 */
+	private TransactionGroup find(TransactionGroupCache cache, int offset, int length) {
+		int hash = length;
+		for (int i = 0; i < length; i++) {
+			char c = (char) this.charAt(offset + i);
+			this.key[i] = c;
+			hash = 31 * hash + c;
+		}
+		this.keyHash = hash;
+		return cache.get(this.key, length, hash);
+	}
+
+	/**
+	 * This method parse one integer that starts at position and ends before the
+	 * next space or end, with the same rules as Integer.parseInt: an optional + or
+	 * - sign followed by at least one digit, and the value must fit in an int.
+	 * 
+	 * @return the integer, position is moved to the first character after it. If
+	 *         the characters are not an integer, failed is set and position is
+	 *         moved to the character where that was found
+	 */
+	private int parseInt(int end) {
+		int i = this.position;
+		this.failed = false;
+		boolean negative = false;
+		if (i < end && (this.charAt(i) == '-' || this.charAt(i) == '+')) {
+			negative = this.charAt(i) == '-';
+			i++;
+		}
+		// The value is collected as a negative number, because Integer.MIN_VALUE
+		// has no positive counterpart
+		int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int result = 0;
+		int digits = 0;
+		for (; i < end; i++) {
+			int c = this.charAt(i);
+			if (c == ' ')
+				break;
+			// ASCII digits are the common case, Character.digit also accepts the
+			// other Unicode digits like Integer.parseInt does
+			int digit = c >= '0' && c <= '9' ? c - '0' : Character.digit(c, 10);
+			// Exception: not a digit, or the value does not fit in an int
+			if (digit < 0 || result < limit / 10 || result * 10 < limit + digit)
+				break;
+			result = result * 10 - digit;
+			digits++;
+		}
+		this.position = i;
+		// Exception: not a digit, a sign without digits, or two spaces in a row
+		if ((i < end && this.charAt(i) != ' ') || digits == 0) {
+			this.failed = true;
+			return 0;
+		}
+		return negative ? result : -result;
+	}
+
+	/**
+	 * This method return the character at index of the current source. Bytes are
+	 * read as unsigned, so a byte that is not ASCII is never a digit or a space.
+	 */
+	private int charAt(int index) {
+		if (this.sequence != null)
+			return this.sequence.charAt(index);
+		if (this.chars != null)
+			return this.chars[index];
+		return this.bytes.get(index) & 0xFF;
+	}
+}
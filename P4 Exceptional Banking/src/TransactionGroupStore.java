@@ -0,0 +1,556 @@
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * A TransactionGroupStore object keeps the transaction groups of an Account in
+ * the order they were added. The groups are stored in segments of 64 groups,
+ * so adding a group never copies the groups of a full segment; only the small
+ * array of segment references is doubled when it is full. Most accounts only
+ * have a few groups, so the first segment starts with room for 4 and is
+ * doubled until it holds 64. Next to every
+ * group the store also keeps the totals of the account up to and including
+ * that group: the number of transactions, the balance, the number of
+ * overdrafts and the lowest balance so far. The totals of a new group are
+ * calculated from the totals before it, so the totals of the whole account are
+ * always ready, and the number of transactions lets us find the group of a
+ * transaction index by binary search. Groups with more than 64 transactions
+ * also get a checkpoint every 64 transactions, so the balance and the
+ * overdrafts up to any transaction are found without walking the whole group.
+ * The arrays of checkpoints of a segment are only created when one of its
+ * groups needs them.
+ * Many groups can be added at once by addAll, which calculates their totals on
+ * a ForkJoinPool with a parallel prefix scan.
+ * 
+ * The store can be read by many threads while another thread adds groups.
+ * Adding is synchronized, so only one thread adds at a time. Reading never
+ * locks: a group and its totals are written before size, and a larger array of
+ * segment references is published before size too, so a reader that reads
+ * size first always finds every group below it. A larger first segment is
+ * copied in its initializer and published in a new array of segment
+ * references, so a reader never sees it half copied. Groups are never removed, so a
+ * reader that uses an older size still gets the right answer for it. This
+ * class contains 3 private field, 1 initializer and 14 methods, each of them in
+ * turn has following functions:
+ * 
+ * @Initializer(maxGroups): create an empty store that holds at most maxGroups
+ *                          groups.
+ * 
+ * @method add(group): add a group at the end, return false if the store is
+ *         full
+ * @method addAll(groups, pool): add many groups at the end and calculate their
+ *         totals in parallel, return false if they do not fit
+ * @method addAll(groups, count, pool): add the first count groups of an
+ *         array the same way
+ * @method addAll(groups, overdrafts): add many groups whose overdrafts are
+ *         known, return false if they do not fit
+ * @method size(): return the number of groups
+ * @method get(groupIndex): return the group with the index
+ * @method getGroupStart(groupIndex): return the index of the first transaction
+ *         of the group
+ * @method getTransactionCount(): return the number of transactions in all
+ *         groups
+ * @method getBalance(): return the balance after all groups
+ * @method getNumberOfOverdrafts(): return the number of overdrafts in all
+ *         groups
+ * @method getLowestBalance(): return the lowest balance after any transaction
+ * @method findGroup(transactionIndex): return the index of the group that
+ *         contains the transaction
+ * @method getBalanceBefore(transactionIndex): return the balance after the
+ *         transactions before the index
+ * @method getOverdraftsBefore(transactionIndex): return the number of
+ *         overdrafts among the transactions before the index
+ */
+public class TransactionGroupStore {
+
+	// Each segment holds 2^SEGMENT_SHIFT groups
+	private static final int SEGMENT_SHIFT = 6;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+	// The first segment starts with room for this many groups
+	private static final int FIRST_SEGMENT_SIZE = 4;
+	// Groups with more transactions than this keep a checkpoint every
+	// 2^CHECKPOINT_SHIFT transactions
+	private static final int CHECKPOINT_SHIFT = 6;
+	private static final int CHECKPOINT_SIZE = 1 << CHECKPOINT_SHIFT;
+	// addAll splits the groups into blocks of about this many transactions, and
+	// adds them one by one when there are fewer than two blocks
+	private static final int BLOCK_TRANSACTIONS = 1 << 15;
+
+	private final int maxGroups;
+	private volatile Segment[] segments;
+	// Written last when a group is added, readers must read it first
+	private volatile int size;
+
+	/**
+	 * This initializer will create an empty store that holds at most maxGroups
+	 * groups. Use Integer.MAX_VALUE when there should be no limit.
+	 */
+	public TransactionGroupStore(int maxGroups) {
+		this.maxGroups = maxGroups;
+		this.segments = new Segment[1];
+		this.size = 0;
+	}
+
+	/**
+	 * This method add a group at the end of the store and calculate its totals
+	 * from the totals of the group before it. A new segment is created when the
+	 * last one is full, and the array of segment references is doubled when it
+	 * has no room for the new segment. The first segment is doubled when it is
+	 * full and smaller than SEGMENT_SIZE.
+	 * 
+	 * @return true if the group is added, false if the store already holds
+	 *         maxGroups groups
+	 */
+	public synchronized boolean add(TransactionGroup group) {
+		return this.add(group, -1);
+	}
+
+	/**
+	 * This method add a group like add(group) does. If groupOverdrafts is not
+	 * negative, it is the number of overdrafts of the group after the groups
+	 * before it, and the group is only walked when it needs checkpoints.
+	 */
+	private boolean add(TransactionGroup group, int groupOverdrafts) {
+		int size = this.size;
+		if (size >= this.maxGroups)
+			return false;
+		int segment = size >>> SEGMENT_SHIFT;
+		int offset = size & SEGMENT_MASK;
+		Segment[] segments = this.segments;
+		if (offset == 0) {
+			// The new segment is filled in before the array is published
+			if (segment == segments.length)
+				segments = Arrays.copyOf(segments, segment * 2);
+			segments[segment] = new Segment(segment == 0 ? FIRST_SEGMENT_SIZE : SEGMENT_SIZE);
+			this.segments = segments;
+		} else if (offset == segments[segment].groups.length) {
+			// Readers may hold the old array, so the larger segment goes in a copy
+			segments = segments.clone();
+			segments[segment] = new Segment(segments[segment], 2 * offset);
+			this.segments = segments;
+		}
+		int end = 0;
+		int balance = 0;
+		int overdrafts = 0;
+		int lowest = 0;
+		if (size > 0) {
+			Segment last = segments[(size - 1) >>> SEGMENT_SHIFT];
+			int lastOffset = (size - 1) & SEGMENT_MASK;
+			end = last.ends[lastOffset];
+			balance = last.balances[lastOffset];
+			overdrafts = last.overdrafts[lastOffset];
+			lowest = last.lowests[lastOffset];
+		}
+		Segment s = segments[segment];
+		s.groups[offset] = group;
+		s.ends[offset] = end + group.getTransactionCount();
+		s.balances[offset] = balance + group.getTransactionSum();
+		if (needsCheckpoints(group)) {
+			s.createCheckpoints();
+			s.overdrafts[offset] = overdrafts + this.addCheckpoints(s, offset, group, balance);
+		} else if (groupOverdrafts >= 0)
+			s.overdrafts[offset] = overdrafts + groupOverdrafts;
+		else
+			s.overdrafts[offset] = overdrafts + group.getNumberOfOverdrafts(balance);
+		s.lowests[offset] = Math.min(lowest, balance + group.getLowestBalance());
+		// Publish the group to readers
+		this.size = size + 1;
+		return true;
+	}
+
+	/**
+	 * This method add many groups at the end of the store, with the same totals
+	 * as adding them one by one with add. The totals are a prefix scan: the
+	 * totals of a group depend on every group before it, but only through the
+	 * balance, transaction count, overdrafts and lowest balance before it. So the
+	 * groups are split into blocks, and the scan is done in three steps. 1. The
+	 * sum and count of every block are added up, which is cheap because every
+	 * group knows its own. 2. The blocks are walked in parallel, each starting
+	 * from the balance and count before it, which counts the overdrafts of every
+	 * group, the slow part, and its lowest balance, both from the start of the
+	 * block. 3. The overdrafts and lowest balance before every block are added to
+	 * its groups in parallel. The new groups are published to readers together at
+	 * the end.
+	 * 
+	 * @return true if the groups are added, false if they do not fit in maxGroups
+	 *         groups, then none is added
+	 */
+	public boolean addAll(TransactionGroup[] groups, ForkJoinPool pool) {
+		return this.addAll(groups, groups.length, pool);
+	}
+
+	/**
+	 * This method add the first count groups of an array like addAll(groups,
+	 * pool) does, so a caller that fills a larger array does not have to copy it.
+	 * 
+	 * @return true if the groups are added, false if they do not fit in maxGroups
+	 *         groups, then none is added
+	 */
+	public synchronized boolean addAll(TransactionGroup[] groups, int count, ForkJoinPool pool) {
+		int size = this.size;
+		if (count > this.maxGroups - size)
+			return false;
+		// Step 1, the blocks and the totals before each of them
+		int[] blockStarts = new int[count + 1];
+		int[] blockEnds = new int[count + 1];
+		int[] blockBalances = new int[count + 1];
+		int blocks = 0;
+		int transactions = 0;
+		int balance = 0;
+		if (size > 0) {
+			transactions = this.getGroupEnd(size - 1);
+			balance = this.getBalance();
+		}
+		int blockTransactions = BLOCK_TRANSACTIONS;
+		for (int i = 0; i < count; i++) {
+			if (blockTransactions >= BLOCK_TRANSACTIONS) {
+				blockStarts[blocks] = i;
+				blockEnds[blocks] = transactions;
+				blockBalances[blocks++] = balance;
+				blockTransactions = 0;
+			}
+			blockTransactions += groups[i].getTransactionCount();
+			transactions += groups[i].getTransactionCount();
+			balance += groups[i].getTransactionSum();
+		}
+		blockStarts[blocks] = count;
+		if (blocks < 2) {
+			for (int i = 0; i < count; i++)
+				this.add(groups[i]);
+			return true;
+		}
+		// The new segments, a full first segment and the arrays of checkpoints are
+		// created before the array is published, so the tasks only fill them in
+		int lastSegment = (size + count - 1) >>> SEGMENT_SHIFT;
+		Segment[] segments = lastSegment < this.segments.length ? this.segments.clone()
+				: Arrays.copyOf(this.segments, Math.max(2 * this.segments.length, lastSegment + 1));
+		if ((size & SEGMENT_MASK) != 0 && segments[0].groups.length < SEGMENT_SIZE)
+			segments[0] = new Segment(segments[0], SEGMENT_SIZE);
+		for (int segment = (size + SEGMENT_MASK) >>> SEGMENT_SHIFT; segment <= lastSegment; segment++)
+			segments[segment] = new Segment(SEGMENT_SIZE);
+		for (int i = 0; i < count; i++)
+			if (needsCheckpoints(groups[i]))
+				segments[(size + i) >>> SEGMENT_SHIFT].createCheckpoints();
+		this.segments = segments;
+		// Step 2, every block from its own start
+		int[] blockOverdrafts = new int[blocks];
+		int[] blockLowests = new int[blocks];
+		pool.invoke(new BlockTask(0, blocks, block -> {
+			int end = blockEnds[block];
+			int current = blockBalances[block];
+			int overdrafts = 0;
+			int lowest = Integer.MAX_VALUE;
+			for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
+				TransactionGroup group = groups[i];
+				Segment s = segments[(size + i) >>> SEGMENT_SHIFT];
+				int offset = (size + i) & SEGMENT_MASK;
+				s.groups[offset] = group;
+				end += group.getTransactionCount();
+				s.ends[offset] = end;
+				if (needsCheckpoints(group))
+					overdrafts += this.addCheckpoints(s, offset, group, current);
+				else
+					overdrafts += group.getNumberOfOverdrafts(current);
+				s.overdrafts[offset] = overdrafts;
+				lowest = Math.min(lowest, current + group.getLowestBalance());
+				s.lowests[offset] = lowest;
+				current += group.getTransactionSum();
+				s.balances[offset] = current;
+			}
+			blockOverdrafts[block] = overdrafts;
+			blockLowests[block] = lowest;
+		}));
+		// The overdrafts and lowest balance before every block
+		int overdrafts = size == 0 ? 0 : this.getNumberOfOverdrafts();
+		int lowest = size == 0 ? 0 : this.getLowestBalance();
+		for (int block = 0; block < blocks; block++) {
+			int blockOverdraft = blockOverdrafts[block];
+			int blockLowest = blockLowests[block];
+			blockOverdrafts[block] = overdrafts;
+			blockLowests[block] = lowest;
+			overdrafts += blockOverdraft;
+			lowest = Math.min(lowest, blockLowest);
+		}
+		// Step 3, the totals before every block are added to its groups
+		pool.invoke(new BlockTask(0, blocks, block -> {
+			for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
+				Segment s = segments[(size + i) >>> SEGMENT_SHIFT];
+				int offset = (size + i) & SEGMENT_MASK;
+				s.overdrafts[offset] += blockOverdrafts[block];
+				s.lowests[offset] = Math.min(s.lowests[offset], blockLowests[block]);
+			}
+		}));
+		// Publish the groups to readers, invoke already made the writes of the
+		// tasks visible to this thread
+		this.size = size + count;
+		return true;
+	}
+
+	/**
+	 * This method return true if a group gets checkpoints. Quick groups answer
+	 * ranges at once, so they never need them.
+	 */
+	private static boolean needsCheckpoints(TransactionGroup group) {
+		return group.getTransactionCount() > CHECKPOINT_SIZE && group.getEncoding() != 2;
+	}
+
+	/**
+	 * This method add many groups at the end of the store, when the number of
+	 * overdrafts of each of them after the groups before it is already known,
+	 * like a snapshot of an account has them. overdrafts[i] belongs to groups[i].
+	 * Every total is then found in O(1), so the groups are added one by one.
+	 * 
+	 * @return true if the groups are added, false if they do not fit in maxGroups
+	 *         groups, then none is added
+	 */
+	public synchronized boolean addAll(TransactionGroup[] groups, int[] overdrafts) {
+		if (groups.length > this.maxGroups - this.size)
+			return false;
+		for (int i = 0; i < groups.length; i++)
+			this.add(groups[i], overdrafts[i]);
+		return true;
+	}
+
+	/**
+	 * This method walk the transactions of a group once, and record the sum and
+	 * the number of overdrafts of the transactions before every
+	 * 2^CHECKPOINT_SHIFT-th one. The overdrafts depend on the balance before the
+	 * group, which is why they are kept here and not in the group: the same group
+	 * can be added to many accounts.
+	 * 
+	 * @return the number of overdrafts in the whole group
+	 */
+	private int addCheckpoints(Segment s, int offset, TransactionGroup group, int startingBalance) {
+		int count = group.getTransactionCount();
+		int[] sums = new int[((count - 1) >>> CHECKPOINT_SHIFT) + 1];
+		int[] overdrafts = new int[sums.length];
+		int balance = startingBalance;
+		int overdraftCount = 0;
+		PrimitiveIterator.OfInt amounts = group.iterator();
+		for (int i = 0; i < count; i++) {
+			if ((i & (CHECKPOINT_SIZE - 1)) == 0) {
+				sums[i >>> CHECKPOINT_SHIFT] = balance - startingBalance;
+				overdrafts[i >>> CHECKPOINT_SHIFT] = overdraftCount;
+			}
+			int amount = amounts.nextInt();
+			balance += amount;
+			if (balance < 0 && amount < 0)
+				overdraftCount++;
+		}
+		s.checkpointSums[offset] = sums;
+		s.checkpointOverdrafts[offset] = overdrafts;
+		return overdraftCount;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public TransactionGroup get(int groupIndex) {
+		return this.segments[groupIndex >>> SEGMENT_SHIFT].groups[groupIndex & SEGMENT_MASK];
+	}
+
+	/**
+	 * This method return the index of the first transaction of a group, which is
+	 * the number of transactions in all groups before it.
+	 */
+	public int getGroupStart(int groupIndex) {
+		return groupIndex == 0 ? 0 : this.getGroupEnd(groupIndex - 1);
+	}
+
+	/**
+	 * This method return the number of transactions in all groups.
+	 */
+	public int getTransactionCount() {
+		int size = this.size;
+		return size == 0 ? 0 : this.getGroupEnd(size - 1);
+	}
+
+	/**
+	 * This method return the balance after all groups.
+	 */
+	public int getBalance() {
+		int size = this.size;
+		return size == 0 ? 0 : this.segments[(size - 1) >>> SEGMENT_SHIFT].balances[(size - 1) & SEGMENT_MASK];
+	}
+
+	/**
+	 * This method return the number of overdrafts in all groups.
+	 */
+	public int getNumberOfOverdrafts() {
+		int size = this.size;
+		return size == 0 ? 0 : this.segments[(size - 1) >>> SEGMENT_SHIFT].overdrafts[(size - 1) & SEGMENT_MASK];
+	}
+
+	/**
+	 * This method return the lowest balance after any transaction, or 0 if it was
+	 * never below 0.
+	 */
+	public int getLowestBalance() {
+		int size = this.size;
+		return size == 0 ? 0 : this.segments[(size - 1) >>> SEGMENT_SHIFT].lowests[(size - 1) & SEGMENT_MASK];
+	}
+
+	/**
+	 * This method find the group that contains a transaction index by binary
+	 * search over the stored transaction counts. The index should be smaller than
+	 * getTransactionCount().
+	 * 
+	 * @return the index of the first group that ends after transactionIndex
+	 */
+	public int findGroup(int transactionIndex) {
+		int low = 0;
+		int high = this.size - 1;
+		// Every group added after the count was read ends after transactionIndex, so
+		// they do not change the answer
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.getGroupEnd(middle) > transactionIndex)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * This method return the balance after the first transactionIndex
+	 * transactions, or after all of them if there are fewer. The group of the last
+	 * one is found by binary search, and inside the group at most
+	 * 2^CHECKPOINT_SHIFT - 1 transactions are visited after its checkpoint.
+	 */
+	public int getBalanceBefore(int transactionIndex) {
+		return this.prefix(transactionIndex, false);
+	}
+
+	/**
+	 * This method return the number of overdrafts among the first
+	 * transactionIndex transactions, or among all of them if there are fewer, the
+	 * same way as getBalanceBefore.
+	 */
+	public int getOverdraftsBefore(int transactionIndex) {
+		return this.prefix(transactionIndex, true);
+	}
+
+	/**
+	 * This method calculate the balance, or the number of overdrafts, of the first
+	 * transactionIndex transactions. It starts from the totals before the group
+	 * that holds transaction No.transactionIndex, adds the checkpoint of the group
+	 * at or before it, and lets the group calculate the rest.
+	 */
+	private int prefix(int transactionIndex, boolean overdrafts) {
+		int size = this.size;
+		if (size == 0 || transactionIndex <= 0)
+			return 0;
+		Segment last = this.segments[(size - 1) >>> SEGMENT_SHIFT];
+		if (transactionIndex >= last.ends[(size - 1) & SEGMENT_MASK])
+			return overdrafts ? last.overdrafts[(size - 1) & SEGMENT_MASK] : last.balances[(size - 1) & SEGMENT_MASK];
+		int groupIndex = this.findGroup(transactionIndex);
+		int balance = 0;
+		int overdraftCount = 0;
+		if (groupIndex > 0) {
+			Segment before = this.segments[(groupIndex - 1) >>> SEGMENT_SHIFT];
+			balance = before.balances[(groupIndex - 1) & SEGMENT_MASK];
+			overdraftCount = before.overdrafts[(groupIndex - 1) & SEGMENT_MASK];
+		}
+		Segment s = this.segments[groupIndex >>> SEGMENT_SHIFT];
+		TransactionGroup group = s.groups[groupIndex & SEGMENT_MASK];
+		int offset = transactionIndex - this.getGroupStart(groupIndex);
+		int from = 0;
+		int[][] checkpointSums = s.checkpointSums;
+		int[] sums = checkpointSums == null ? null : checkpointSums[groupIndex & SEGMENT_MASK];
+		if (sums != null) {
+			int checkpoint = offset >>> CHECKPOINT_SHIFT;
+			from = checkpoint << CHECKPOINT_SHIFT;
+			overdraftCount += s.checkpointOverdrafts[groupIndex & SEGMENT_MASK][checkpoint];
+			balance += sums[checkpoint];
+		}
+		if (overdrafts)
+			return overdraftCount + group.getNumberOfOverdrafts(balance, from, offset);
+		return balance + group.getRangeSum(from, offset);
+	}
+
+	private int getGroupEnd(int groupIndex) {
+		return this.segments[groupIndex >>> SEGMENT_SHIFT].ends[groupIndex & SEGMENT_MASK];
+	}
+
+	/**
+	 * A BlockTask runs an action for every block from from to to - 1, splitting
+	 * the range in halves until one block is left, so the blocks run on every
+	 * thread of the pool.
+	 */
+	private static class BlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final IntConsumer action;
+
+		BlockTask(int from, int to, IntConsumer action) {
+			this.from = from;
+			this.to = to;
+			this.action = action;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from == 1) {
+				this.action.accept(this.from);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new BlockTask(this.from, middle, this.action), new BlockTask(middle, this.to, this.action));
+		}
+	}
+
+	/**
+	 * A Segment holds up to SEGMENT_SIZE groups and the totals of the account up
+	 * to and including each of them.
+	 */
+	private static class Segment {
+		final TransactionGroup[] groups;
+		final int[] ends;
+		final int[] balances;
+		final int[] overdrafts;
+		final int[] lowests;
+		// Created by the first group with more than CHECKPOINT_SIZE transactions, and
+		// only set for such groups, written before size like the totals
+		int[][] checkpointSums;
+		int[][] checkpointOverdrafts;
+
+		Segment(int capacity) {
+			this.groups = new TransactionGroup[capacity];
+			this.ends = new int[capacity];
+			this.balances = new int[capacity];
+			this.overdrafts = new int[capacity];
+			this.lowests = new int[capacity];
+		}
+
+		/**
+		 * This initializer will copy a smaller segment into a segment of capacity
+		 * groups.
+		 */
+		Segment(Segment segment, int capacity) {
+			this.groups = Arrays.copyOf(segment.groups, capacity);
+			this.ends = Arrays.copyOf(segment.ends, capacity);
+			this.balances = Arrays.copyOf(segment.balances, capacity);
+			this.overdrafts = Arrays.copyOf(segment.overdrafts, capacity);
+			this.lowests = Arrays.copyOf(segment.lowests, capacity);
+			if (segment.checkpointSums != null) {
+				this.checkpointOverdrafts = Arrays.copyOf(segment.checkpointOverdrafts, capacity);
+				this.checkpointSums = Arrays.copyOf(segment.checkpointSums, capacity);
+			}
+		}
+
+		void createCheckpoints() {
+			if (this.checkpointSums == null) {
+				this.checkpointOverdrafts = new int[this.groups.length][];
+				this.checkpointSums = new int[this.groups.length][];
+			}
+		}
+	}
+}
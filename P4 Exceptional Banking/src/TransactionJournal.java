@@ -0,0 +1,451 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A TransactionJournal object appends every transaction group added to its
+ * accounts to a file, so the accounts can be rebuilt with replay after the
+ * program stops. Accounts write to a journal after Account.setJournal is
+ * called, and many accounts can share one journal. Every record has the length
+ * and the CRC32C of its payload, so a record that was only partly written when
+ * the program stopped is noticed and dropped. A record that is not whole in
+ * the middle of the file means the file was damaged, and it is not dropped.
+ * 
+ * Records of concurrent appends are collected in a buffer and written as one
+ * batch. With Durability.FORCE, append returns only after the batch was forced
+ * to the disk, and the thread that writes a batch forces it once for all the
+ * records in it, which is called a group commit. Larger batches mean fewer
+ * forces and more appends per second, but a longer wait. This class contains 12
+ * private field, 1 initializer and 4 methods, each of them in turn has
+ * following functions:
+ * 
+ * @Initializer(file, durability, maxBatchSize): open the journal, drop a record
+ *                                               that was partly written.
+ * 
+ * @method flush(): write and force every record appended so far
+ * @method getForceCount(): return the number of times the file was forced
+ * @method close(): flush and close the file
+ * @method replay(file): rebuild the accounts of a journal
+ */
+public class TransactionJournal implements Closeable {
+
+	/**
+	 * How long append waits, from the shortest and least safe to the longest and
+	 * safest. ASYNC returns as soon as the record is in the buffer, the buffer is
+	 * written when it holds maxBatchSize records, by flush or by close. WRITE
+	 * returns after the batch of the record was written to the file, so only a
+	 * crash of the operating system can lose it. FORCE returns after the batch was
+	 * forced to the disk.
+	 */
+	public enum Durability {
+		ASYNC, WRITE, FORCE
+	}
+
+	// The types of record
+	private static final byte ACCOUNT_RECORD = 0;
+	private static final byte GROUP_RECORD = 1;
+	// The length and CRC before every payload
+	private static final int RECORD_HEADER = 8;
+	// The shortest payload, a group record without values
+	private static final int MIN_PAYLOAD = 1 + 4 + 1 + 1;
+
+	private final FileChannel channel;
+	private final Durability durability;
+	private final int maxBatchSize;
+	// Records are appended to pending, while the thread that writes a batch owns
+	// spare
+	private ByteBuffer pending;
+	private ByteBuffer spare;
+	private int pendingCount;
+	// The number of records appended, the number written to the file and the
+	// number forced to the disk
+	private long appended;
+	private long written;
+	private long forced;
+	// True while a thread writes a batch
+	private boolean writing;
+	private IOException failure;
+	private long forces;
+
+	/**
+	 * This initializer will open a journal file, which is created if it does not
+	 * exist. A record at the end that was only partly written is cut off, so new
+	 * records follow the last whole one.
+	 * 
+	 * @param durability   how long append waits
+	 * @param maxBatchSize the largest number of records written as one batch
+	 * @throws IOException if the file can not be opened, or a record that is not
+	 *                     whole is followed by a whole one
+	 */
+	public TransactionJournal(File file, Durability durability, int maxBatchSize) throws IOException {
+		// Exception: a batch holds at least one record
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("maxBatchSize must be at least 1, got " + maxBatchSize);
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.durability = durability;
+		this.maxBatchSize = maxBatchSize;
+		this.pending = ByteBuffer.allocateDirect(1 << 16);
+		this.spare = ByteBuffer.allocateDirect(1 << 16);
+		try {
+			long end = read(this.channel, null);
+			this.channel.truncate(end);
+			this.channel.position(end);
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * This method write the record of a new account, which replay needs before the
+	 * groups of the account. It is written by Account.setJournal.
+	 * 
+	 * @return the number of the record, to pass to await
+	 */
+	long appendAccount(int id, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 4 + bytes.length);
+		payload.put(ACCOUNT_RECORD).putInt(id).putInt(bytes.length).put(bytes);
+		return this.buffer(record(payload));
+	}
+
+	/**
+	 * This method encode the record of a group of an account. Account calls it
+	 * before it takes any lock, then passes the record to buffer.
+	 */
+	static byte[] encode(int id, TransactionGroup group) {
+		int[] length = { 1 + 4 + 1 + Varints.MAX_LENGTH };
+		group.forEachValue(value -> length[0] += Varints.length(Varints.zigzag(value)));
+		ByteBuffer payload = ByteBuffer.allocate(length[0]);
+		payload.put(GROUP_RECORD).putInt(id).put((byte) group.getEncoding());
+		Varints.put(payload, group.getValueCount());
+		group.forEachValue(value -> Varints.put(payload, Varints.zigzag(value)));
+		return record(payload);
+	}
+
+	/**
+	 * This method put the length and the CRC32C in front of a payload.
+	 */
+	private static byte[] record(ByteBuffer payload) {
+		int length = payload.position();
+		CRC32C crc = new CRC32C();
+		crc.update(payload.array(), 0, length);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+		record.putInt(length).putInt((int) crc.getValue()).put(payload.array(), 0, length);
+		return record.array();
+	}
+
+	/**
+	 * This method add an encoded record to the pending batch. When the batch
+	 * already holds maxBatchSize records, it waits until a thread takes it. The
+	 * thread that filled it always takes it in await.
+	 * 
+	 * @return the number of the record, to pass to await
+	 */
+	synchronized long buffer(byte[] record) throws IOException {
+		while (this.pendingCount >= this.maxBatchSize && this.failure == null && this.channel.isOpen())
+			this.waitForWriter();
+		this.checkOpen();
+		if (this.pending.remaining() < record.length) {
+			ByteBuffer larger = ByteBuffer
+					.allocateDirect(Math.max(2 * this.pending.capacity(), this.pending.position() + record.length));
+			this.pending.flip();
+			this.pending = larger.put(this.pending);
+		}
+		this.pending.put(record);
+		this.pendingCount++;
+		return ++this.appended;
+	}
+
+	/**
+	 * This method wait until record No.sequence is as durable as durability asks.
+	 * With ASYNC it only writes the pending batch when it is full.
+	 */
+	void await(long sequence) throws IOException {
+		if (this.durability != Durability.ASYNC)
+			this.complete(sequence, this.durability == Durability.FORCE);
+		else if (this.isFull())
+			this.complete(sequence, false);
+	}
+
+	private synchronized boolean isFull() {
+		return this.pendingCount >= this.maxBatchSize;
+	}
+
+	/**
+	 * This method write and force every record appended so far.
+	 */
+	public void flush() throws IOException {
+		long sequence;
+		synchronized (this) {
+			sequence = this.appended;
+		}
+		this.complete(sequence, true);
+	}
+
+	/**
+	 * This method make sure record No.sequence is written, and forced if force is
+	 * true. If another thread is writing a batch, we wait for it. Otherwise this
+	 * thread takes every pending record as the next batch and writes it, so the
+	 * threads that wait meanwhile are served by one write and one force. When the
+	 * record was already written but not forced, the file is only forced.
+	 */
+	private void complete(long sequence, boolean force) throws IOException {
+		while (true) {
+			ByteBuffer batch;
+			long last;
+			synchronized (this) {
+				while (this.writing && this.done(force) < sequence && this.failure == null)
+					this.waitForWriter();
+				if (this.failure != null)
+					throw new IOException("journal failed before the record was written", this.failure);
+				if (this.done(force) >= sequence)
+					return;
+				this.writing = true;
+				if (this.written >= sequence) {
+					batch = null;
+					last = this.written;
+				} else {
+					batch = this.pending;
+					this.pending = this.spare;
+					this.spare = batch;
+					this.pendingCount = 0;
+					last = this.appended;
+					// The next batch is filled while this one is written
+					this.notifyAll();
+				}
+			}
+			IOException error = null;
+			try {
+				if (batch != null) {
+					batch.flip();
+					while (batch.hasRemaining())
+						this.channel.write(batch);
+				}
+				if (force)
+					this.channel.force(false);
+			} catch (IOException e) {
+				error = e;
+			}
+			if (batch != null)
+				batch.clear();
+			synchronized (this) {
+				this.writing = false;
+				if (error != null)
+					this.failure = error;
+				else {
+					this.written = last;
+					if (force) {
+						this.forced = last;
+						this.forces++;
+					}
+				}
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * This method return the number of records that are written, or forced if
+	 * force is true.
+	 */
+	private long done(boolean force) {
+		return force ? this.forced : this.written;
+	}
+
+	private void waitForWriter() throws IOException {
+		try {
+			this.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the journal", e);
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		// Exception: the journal is closed, or a write failed before
+		if (!this.channel.isOpen())
+			throw new IOException("journal is closed");
+		if (this.failure != null)
+			throw new IOException("journal failed", this.failure);
+	}
+
+	/**
+	 * This method return the number of times the file was forced, which is the
+	 * number of batches with Durability.FORCE.
+	 */
+	public synchronized long getForceCount() {
+		return this.forces;
+	}
+
+	/**
+	 * This method flush every record and close the file. Appending afterwards
+	 * throws an IOException.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (this.channel.isOpen())
+				this.flush();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * This method rebuild the accounts of a journal file, with their names, IDs
+	 * and every transaction group in the order they were appended. A record at the
+	 * end that was only partly written is ignored.
+	 * 
+	 * @return the accounts by ID
+	 * @throws IOException if the file can not be read, a record that is not whole
+	 *                     is followed by a whole one, or a group belongs to an
+	 *                     account that has no account record
+	 */
+	public static Map<Integer, Account> replay(File file) throws IOException {
+		Map<Integer, Account> accounts = new HashMap<Integer, Account>();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			read(channel, accounts);
+		}
+		return accounts;
+	}
+
+	/**
+	 * This method read the records of a journal from the start until the end of
+	 * the file or a record that is not whole, and add them to accounts if it is
+	 * not null. The file is read in large chunks, a record that does not fit in the
+	 * rest of a chunk is read again at the start of the next one. Only the last
+	 * batch can be cut short when the program stops, so a record that is not whole
+	 * must not be followed by a whole one.
+	 * 
+	 * @return the position after the last whole record
+	 * @throws IOException if a record that is not whole is followed by a whole
+	 *                     record, which means the file was damaged
+	 */
+	private static long read(FileChannel channel, Map<Integer, Account> accounts) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+		CRC32C crc = new CRC32C();
+		long size = channel.size();
+		long chunkStart = 0;
+		long end = 0;
+		while (chunkStart < size) {
+			fill(channel, chunk, chunkStart);
+			while (true) {
+				int start = chunk.position();
+				if (chunk.remaining() < RECORD_HEADER) {
+					// A header that does not fit in the file is a record that is not whole
+					if (end + RECORD_HEADER > size)
+						return end;
+					break;
+				}
+				int length = chunk.getInt(start);
+				// A length that does not fit in the file, or the zeros a file may be
+				// extended with, are a record that is not whole
+				if (length < MIN_PAYLOAD || end + RECORD_HEADER + length > size)
+					return checkLast(channel, end, size);
+				if (chunk.remaining() < RECORD_HEADER + length) {
+					// The record needs a larger chunk
+					if (start == 0)
+						chunk = ByteBuffer.allocate(RECORD_HEADER + length);
+					break;
+				}
+				crc.reset();
+				crc.update(chunk.array(), start + RECORD_HEADER, length);
+				if ((int) crc.getValue() != chunk.getInt(start + 4))
+					return checkLast(channel, end, size);
+				if (accounts != null) {
+					chunk.position(start + RECORD_HEADER);
+					apply(chunk, accounts);
+				}
+				chunk.position(start + RECORD_HEADER + length);
+				end += RECORD_HEADER + length;
+			}
+			chunkStart = end;
+		}
+		return end;
+	}
+
+	/**
+	 * This method check that the record at end, which is not whole, is the last
+	 * one. Its length may be damaged too, so every position after it is tried as
+	 * the start of a whole record, one that is longer than MIN_PAYLOAD, fits in a
+	 * chunk and has the right CRC32C. The zeros a file may be extended with are
+	 * not a record.
+	 * 
+	 * @return end, where the file is cut
+	 * @throws IOException if a whole record follows
+	 */
+	private static long checkLast(FileChannel channel, long end, long size) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+		CRC32C crc = new CRC32C();
+		long chunkStart = end + 1;
+		fill(channel, chunk, chunkStart);
+		for (long position = chunkStart; position + RECORD_HEADER + MIN_PAYLOAD <= size; position++) {
+			int start = (int) (position - chunkStart);
+			if (start + RECORD_HEADER > chunk.limit()) {
+				chunkStart = position;
+				fill(channel, chunk, chunkStart);
+				start = 0;
+			}
+			int length = chunk.getInt(start);
+			if (length < MIN_PAYLOAD || length > chunk.capacity() - RECORD_HEADER
+					|| position + RECORD_HEADER + length > size)
+				continue;
+			if (start + RECORD_HEADER + length > chunk.limit()) {
+				chunkStart = position;
+				fill(channel, chunk, chunkStart);
+				start = 0;
+			}
+			crc.reset();
+			crc.update(chunk.array(), start + RECORD_HEADER, length);
+			// Exception: the record was damaged after it was written, not cut short
+			if ((int) crc.getValue() == chunk.getInt(start + 4))
+				throw new IOException(
+						"journal record at " + end + " is damaged and followed by a whole record at " + position);
+		}
+		return end;
+	}
+
+	/**
+	 * This method read the file from position into chunk, until chunk is full or
+	 * the file ends, and flip it.
+	 */
+	private static void fill(FileChannel channel, ByteBuffer chunk, long position) throws IOException {
+		chunk.clear();
+		while (chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) > 0)
+			;
+		chunk.flip();
+	}
+
+	/**
+	 * This method add the record whose payload starts at the position of chunk to
+	 * accounts.
+	 */
+	private static void apply(ByteBuffer chunk, Map<Integer, Account> accounts) throws IOException {
+		byte type = chunk.get();
+		int id = chunk.getInt();
+		if (type == ACCOUNT_RECORD) {
+			byte[] name = new byte[chunk.getInt()];
+			chunk.get(name);
+			accounts.put(id, new Account(id, new String(name, StandardCharsets.UTF_8)));
+			return;
+		}
+		Account account = accounts.get(id);
+		// Exception: the group belongs to an account that was never written
+		if (account == null)
+			throw new IOException("journal has a group of account " + id + " before the account");
+		int encoding = chunk.get();
+		int[] values = new int[Varints.get(chunk)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = Varints.unzigzag(Varints.get(chunk));
+		account.addTransactionGroup(new TransactionGroup(encoding, values));
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * A ValidationResult object tells whether a transaction group was good, and if
+ * it was not, which rule it broke and where. It is filled in by the methods
+ * that check a group without throwing a DataFormatException, like
+ * TransactionGroup.validate and TransactionGroupParser.tryParse, and can be
+ * reused for every group, so checking a feed with many bad groups allocates
+ * nothing. This class contains 3 private field, 1 initializer and 6 methods,
+ * each of them in turn has following functions:
+ * 
+ * @Initializer: create a result of a good group.
+ * 
+ * @method isValid(): return true if the group was good
+ * @method getReason(): return the rule the group broke, or null
+ * @method getMessage(): return the message of the DataFormatException the
+ *         throwing methods would have thrown, or null
+ * @method getPosition(): return where the group broke the rule, or -1
+ * @method getGroup(): return the new TransactionGroup, if one was created
+ * @method toString(): return the message and position
+ */
+public class ValidationResult {
+
+	private RejectionReason reason;
+	// For a groupEncoding the index of the element, for a command the index of
+	// the character
+	private int position;
+	private TransactionGroup group;
+
+	/**
+	 * This initializer will create a result of a good group.
+	 */
+	public ValidationResult() {
+		this.position = -1;
+	}
+
+	/**
+	 * This method record that a group broke a rule at a position.
+	 * 
+	 * @return false, so the caller can return it directly
+	 */
+	boolean reject(RejectionReason reason, int position) {
+		this.reason = reason;
+		this.position = position;
+		this.group = null;
+		return false;
+	}
+
+	/**
+	 * This method record that a group was good, group is null when it was only
+	 * checked.
+	 * 
+	 * @return true, so the caller can return it directly
+	 */
+	boolean accept(TransactionGroup group) {
+		this.reason = null;
+		this.position = -1;
+		this.group = group;
+		return true;
+	}
+
+	public boolean isValid() {
+		return this.reason == null;
+	}
+
+	public RejectionReason getReason() {
+		return this.reason;
+	}
+
+	public String getMessage() {
+		return this.reason == null ? null : this.reason.getMessage();
+	}
+
+	public int getPosition() {
+		return this.position;
+	}
+
+	public TransactionGroup getGroup() {
+		return this.group;
+	}
+
+	@Override
+	public String toString() {
+		return this.reason == null ? "valid" : this.reason.getMessage() + " at " + this.position;
+	}
+}
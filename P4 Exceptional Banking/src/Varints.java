@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The class Varints writes and reads the varints used by AccountSnapshot,
+ * AccountRegistry, TransactionJournal and packed integer TransactionGroups. A
+ * varint stores 7 bits of an int per byte, the lowest bits first, and the top
+ * bit of every byte but the last is set, so small numbers take 1 byte and an
+ * int takes at most MAX_LENGTH bytes. Signed numbers are zigzag encoded first,
+ * so small negative numbers are small too. This class contains 9 methods, each
+ * of them in turn has following functions:
+ * 
+ * @method zigzag(value): return the zigzag encoding of a signed int
+ * @method unzigzag(value): return the signed int of a zigzag encoding
+ * @method length(value): return the number of bytes of a varint
+ * @method put(buffer, value): write a varint at the position of a ByteBuffer
+ * @method put(bytes, position, value): write a varint into a byte array
+ * @method get(buffer): read a varint at the position of a ByteBuffer
+ * @method get(bytes, position): read the varint that starts at a position of a
+ *         byte array
+ * @method getZigzags(bytes, position, values, from, to): read many zigzag
+ *         varints of a byte array into an int array
+ * @method skip(bytes, position, count): skip varints of a byte array
+ */
+final class Varints {
+
+	// The longest varint of an int
+	static final int MAX_LENGTH = 5;
+
+	private Varints() {
+	}
+
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * This method return the number of bytes of the varint of an unsigned value.
+	 */
+	static int length(int value) {
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	/**
+	 * This method write the varint of an unsigned value at the position of a
+	 * buffer, the caller makes sure there is room for it.
+	 */
+	static void put(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * This method write the varint of an unsigned value into bytes from index
+	 * position.
+	 * 
+	 * @return the index right after the varint
+	 */
+	static int put(byte[] bytes, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+		return position;
+	}
+
+	/**
+	 * This method read a varint at the position of a buffer. A varint that does
+	 * not end within MAX_LENGTH bytes stops after them.
+	 */
+	static int get(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 7 * MAX_LENGTH; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				break;
+		}
+		return value;
+	}
+
+	/**
+	 * This method read the varint that starts at index position of bytes.
+	 */
+	static int get(byte[] bytes, int position) {
+		int b = bytes[position++];
+		int value = b & 0x7F;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = bytes[position++];
+			value |= (b & 0x7F) << shift;
+		}
+		return value;
+	}
+
+	/**
+	 * This method read the zigzag varints that start at index position of bytes
+	 * into values, from index from to index to. The caller makes sure the bytes
+	 * hold them, at most MAX_LENGTH bytes each. Every packed integer group and
+	 * snapshot is decoded by it, so the loop is written once.
+	 * 
+	 * @return the index right after the last varint, or -1 if a varint does not
+	 *         end within MAX_LENGTH bytes
+	 */
+	static int getZigzags(byte[] bytes, int position, int[] values, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int b = bytes[position++];
+			int value = b & 0x7F;
+			for (int shift = 7; b < 0; shift += 7) {
+				if (shift == 7 * MAX_LENGTH)
+					return -1;
+				b = bytes[position++];
+				value |= (b & 0x7F) << shift;
+			}
+			values[i] = unzigzag(value);
+		}
+		return position;
+	}
+
+	/**
+	 * This method skip count varints from index position of bytes by their last
+	 * bytes, which are the only ones that are not negative.
+	 * 
+	 * @return the index right after the last varint skipped
+	 */
+	static int skip(byte[] bytes, int position, int count) {
+		for (; count > 0; count--)
+			while (bytes[position++] < 0)
+				;
+		return position;
+	}
+}